@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout.benchmarks;
+
+import com.osiris.betterlayout.BLayout;
+import org.openjdk.jmh.annotations.*;
+
+import javax.swing.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adding child components via {@link BLayout#addV(java.awt.Component)} and {@link BLayout#addH(java.awt.Component)}.
+ * The layout and child components are created before each invocation and not part of the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int childCount;
+    private BLayout ly;
+    private JLabel[] labels;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        ly = new BLayout(Trees.newParent(), 100, 100);
+        labels = new JLabel[childCount];
+        for (int i = 0; i < childCount; i++) {
+            labels[i] = new JLabel("Label " + i);
+        }
+    }
+
+    @Benchmark
+    public BLayout addV() {
+        for (JLabel label : labels) {
+            ly.addV(label);
+        }
+        return ly;
+    }
+
+    @Benchmark
+    public BLayout addH() {
+        for (JLabel label : labels) {
+            ly.addH(label);
+        }
+        return ly;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout.benchmarks;
+
+import com.osiris.betterlayout.LayoutCore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The row algorithm on its own, via {@link LayoutCore}, without any components or AWT.
+ * Compare with {@link LayoutBenchmark} to see how much of a pass is measuring and applying.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoreBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int nodeCount;
+    private LayoutCore core;
+    private int height;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        core = new LayoutCore();
+        core.setNodeCount(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            core.setSize(i, 40 + i % 50, 16 + i % 8);
+            if (i % 4 == 0) core.setVertical(i, true);
+            if (i % 3 == 0) core.setPadding(i, i % 16, 0, i % 8, 0);
+        }
+        core.layout();
+    }
+
+    /**
+     * Rebuilds and computes all rows.
+     */
+    @Benchmark
+    public LayoutCore fullPass() {
+        core.markAllDirty();
+        core.layout();
+        return core;
+    }
+
+    /**
+     * The height of a single node in the middle changes, thus all rows below move.
+     */
+    @Benchmark
+    public LayoutCore singleNodeChangedPass() {
+        core.setSize(nodeCount / 2, 50, 16 + (height++ & 15));
+        core.layout();
+        return core;
+    }
+
+    /**
+     * Rows wrap into lines and the wrap width changes, like while resizing a wrapping layout,
+     * thus only the break points get recomputed.
+     */
+    @Benchmark
+    public LayoutCore wrapResizePass() {
+        core.setWrapWidth(200 + (height++ & 255));
+        core.layout();
+        return core;
+    }
+}
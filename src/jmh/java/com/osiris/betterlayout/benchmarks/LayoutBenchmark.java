@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout.benchmarks;
+
+import com.osiris.betterlayout.BLayout;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layout passes of a single {@link BLayout}, via {@link BLayout#doLayout()}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LayoutBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int childCount;
+    @Param({"none", "padding", "mixed"})
+    public String styles;
+    private BLayout ly;
+    private Component middle;
+    private int padding;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ly = Trees.flat(childCount, styles);
+        middle = ly.getComponent(childCount / 2);
+    }
+
+    /**
+     * Re-measures and positions all child components.
+     */
+    @Benchmark
+    public BLayout fullPass() {
+        ly.markAllDirty();
+        ly.doLayout();
+        return ly;
+    }
+
+    /**
+     * Nothing changed since the last pass.
+     */
+    @Benchmark
+    public BLayout unchangedPass() {
+        ly.doLayout();
+        return ly;
+    }
+
+    /**
+     * The padding of a single child component in the middle changes.
+     */
+    @Benchmark
+    public BLayout singleChildChangedPass() {
+        ly.getChildStyles(middle).paddingLeft(padding++ & 15);
+        ly.doLayout();
+        return ly;
+    }
+}
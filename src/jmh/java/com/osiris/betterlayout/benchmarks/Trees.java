@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout.benchmarks;
+
+import com.osiris.betterlayout.BLayout;
+import com.osiris.betterlayout.CompWrapper;
+import com.osiris.betterlayout.Style;
+
+import javax.swing.*;
+
+/**
+ * Builds the component trees used by the benchmarks. <br>
+ * All layouts get a sized parent, since without one the screen size is used,
+ * which is not available when running headless.
+ */
+class Trees {
+
+    static JPanel newParent() {
+        JPanel parent = new JPanel();
+        parent.setSize(1920, 1080);
+        return parent;
+    }
+
+    /**
+     * Returns a displayable layout with the provided amount of labels.
+     *
+     * @param styles "none" for no padding, "padding" for the default padding,
+     *               "mixed" for a mix of alignments and paddings.
+     */
+    static BLayout flat(int childCount, String styles) {
+        BLayout ly = new BLayout(newParent(), 100, 100);
+        for (int i = 0; i < childCount; i++) {
+            CompWrapper compWrapper = i % 5 == 0 ? ly.addV(new JLabel("Label " + i)) : ly.addH(new JLabel("Label " + i));
+            style(compWrapper, styles, i);
+        }
+        ly.addNotify(); // Make displayable, otherwise AWT considers all components invalid
+        ly.validate();
+        return ly;
+    }
+
+    static void style(CompWrapper compWrapper, String styles, int i) {
+        switch (styles) {
+            case "none":
+                compWrapper.delPadding();
+                break;
+            case "padding":
+                break; // Default padding
+            case "mixed":
+                if (i % 3 == 0) compWrapper.delPadding();
+                else if (i % 3 == 1) compWrapper.padding(i % 24).left();
+                else compWrapper.paddingLeft(Style.padding_l).top();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown styles: " + styles);
+        }
+    }
+
+    /**
+     * Returns a displayable tree of nested layouts, where each layout
+     * contains a few labels and the provided amount of child layouts, until the provided depth is reached.
+     */
+    static BLayout nested(int depth, int fanout) {
+        BLayout root = new BLayout(newParent(), 100, 100);
+        fill(root, depth, fanout);
+        root.addNotify();
+        root.validate();
+        return root;
+    }
+
+    private static void fill(BLayout ly, int depth, int fanout) {
+        ly.addV(new JLabel("Title"));
+        ly.addH(new JLabel("Subtitle"), new JLabel("Text"));
+        if (depth <= 1) return;
+        for (int i = 0; i < fanout; i++) {
+            BLayout child = new BLayout(ly, true);
+            ly.addV(child);
+            fill(child, depth - 1, fanout);
+        }
+    }
+
+    /**
+     * Returns the first child layout at the deepest level.
+     */
+    static BLayout deepest(BLayout ly) {
+        for (int i = 0; i < ly.getComponentCount(); i++) {
+            if (ly.getComponent(i) instanceof BLayout) return deepest((BLayout) ly.getComponent(i));
+        }
+        return ly;
+    }
+}
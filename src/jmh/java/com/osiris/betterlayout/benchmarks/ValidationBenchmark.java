@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout.benchmarks;
+
+import com.osiris.betterlayout.BLayout;
+import com.osiris.betterlayout.utils.UI;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of nested {@link BLayout} trees via {@link UI}.
+ * Each layout contains a few labels and {@link #fanout} child layouts, until {@link #depth} is reached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+    @Param({"1", "3", "6"})
+    public int depth;
+    @Param({"3"})
+    public int fanout;
+    private BLayout root;
+    private BLayout deepest;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        root = Trees.nested(depth, fanout);
+        deepest = Trees.deepest(root);
+    }
+
+    @Benchmark
+    public BLayout revalidateAllUpFromRoot() {
+        UI.revalidateAllUp(root);
+        return root;
+    }
+
+    @Benchmark
+    public BLayout revalidateAllUpFromDeepest() {
+        UI.revalidateAllUp(deepest);
+        return deepest;
+    }
+
+    /**
+     * Invalidates the deepest layout (and thus all its parents) before validating.
+     */
+    @Benchmark
+    public BLayout validateAllUpFromDeepest() {
+        deepest.invalidate();
+        UI.validateAllUp(deepest);
+        return deepest;
+    }
+}
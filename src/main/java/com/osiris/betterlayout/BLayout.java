@@ -12,27 +12,71 @@ import com.osiris.betterlayout.utils.UI;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.HashMap;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 /**
  * Magical container that makes layouting
  * as simple as writing basic english. <p>
  */
 public class BLayout extends JPanel {
+    /**
+     * Caches the preferred sizes of labels measured by all layouts,
+     * since measuring text is expensive and forms often contain identical texts.
+     */
+    public static final MeasureCache measureCache = new MeasureCache(4096);
+    /**
+     * Reports containers that get laid out too often within a single event,
+     * like when cropping to content causes a relayout feedback loop.
+     */
+    public static final ThrashDetector thrashDetector = new ThrashDetector();
+    /**
+     * Runs the changes of {@link #accessLater(Runnable)} in batches, once per frame.
+     */
+    public static final MutationQueue mutationQueue = new MutationQueue();
     public Container parent;
     /**
      * Default child component styles. <br>
+     * Children reference its {@link StyleSheet} and copy only the styles set on it directly.
      */
-    public CompWrapper defaultCompCompWrapper = new CompWrapper(null).center().padding();
+    public CompWrapper defaultCompCompWrapper = new CompWrapper(null).sheet(StyleSheet.DEFAULT);
     /**
-     * Maps child components to their styles.
+     * Maps child components to their styles. <br>
+     * Kept in sync when adding and removing child components, thus never references removed ones.
+     * Compares components by identity, thus components with custom {@link Object#equals(Object)} work too.
      */
-    public Map<Component, CompWrapper> compsAndStyles = new HashMap<>();
+    public Map<Component, CompWrapper> compsAndStyles = new IdentityHashMap<>();
     /**
-     * Call {@link #refresh()} to see the changes on the UI. <br>
+     * Layout heat map, shows relayout hot spots: if bigger than 0, tints every {@link BLayout} red,
+     * depending on how many times it was laid out in the last provided seconds,
+     * and shows that amount in its top left corner. <br>
+     * Each layout gets repainted on its next layout pass.
+     */
+    public static volatile int heatMapSeconds = 0;
+    /**
+     * Amount of passes in {@link #heatMapSeconds}, for the strongest tint.
+     */
+    public static int heatMapMaxPasses = 30;
+    /**
+     * Draft layout during live resizes: if bigger than 0, a resize that follows the previous resize of the same layout
+     * within this amount of milliseconds counts as continuous resizing, like dragging a window edge.
+     * Its pass is a draft pass, which reuses the measured sizes of the last pass instead of re-measuring
+     * the child components (like re-wrapping text), and only resolves percent sizes and re-positions. <br>
+     * After no resize for this amount of milliseconds one full pass re-measures the drafted child components. <br>
+     * The first resize is always a full pass. See {@link LayoutStats#draftPasses}.
+     */
+    public static volatile int draftResizeMillis = 0;
+    /**
+     * Call {@link #repaint()} to see the changes on the UI. <br>
      * Enables debug lines that display corners and padding of each child component. <br>
+     * They are drawn when painting, from the geometry of the last layout pass.
      */
     public boolean isDebug = false;
     /**
@@ -40,7 +84,50 @@ public class BLayout extends JPanel {
      * Container size gets set to the total child components size. <br>
      */
     public boolean isCropToContent = false;
+    /**
+     * Call {@link #refresh()} to see the changes on the UI. <br>
+     * Wraps horizontal child components that don't fit into the width of the container into the next line,
+     * like words in a text, instead of letting them overflow. Useful for tag clouds and toolbars. <br>
+     * Resizing the container only recomputes the line break points, without re-measuring the child components.
+     */
+    public boolean isWrap = false;
+    /**
+     * Call {@link #refresh()} to see the changes on the UI. <br>
+     * Computes the child component positions on {@link #asyncExecutor} instead of the event dispatch thread. <br>
+     * Only measuring the child components and applying the computed bounds happen on the event dispatch thread,
+     * thus child components get their new bounds slightly after the layout pass.
+     * Results of passes that got outdated while computing are dropped.
+     */
+    public boolean isAsyncLayout = false;
+    /**
+     * Runs the computations of {@link #isAsyncLayout}.
+     */
+    public Executor asyncExecutor = ForkJoinPool.commonPool();
+    /**
+     * If at least two child {@link BLayout}s that crop to their content contain this many components,
+     * the content sizes of all such child layouts get computed in parallel, in the {@link ForkJoinPool#commonPool()},
+     * before this container computes its rows. Smaller child layouts are computed sequentially. <br>
+     * Only the computations run in parallel, measuring the components still happens on the event dispatch thread.
+     * Set to 0 to disable.
+     */
+    public int parallelMeasureThreshold = 500;
+    /**
+     * Counters about the layout passes of this container,
+     * like how many passes were skipped because nothing changed.
+     */
+    public final LayoutStats stats = new LayoutStats();
+    /**
+     * Size in percent of the {@link #parent}, see {@link #updateSize(int, int)}.
+     * Gets resolved in each layout pass of the parent, if this layout is its child component,
+     * otherwise on each resize of the parent, while this layout is displayable.
+     */
+    int widthPercent, heightPercent;
+    /**
+     * Registered at the {@link #parent} while this layout is displayable, if it needs one, see {@link #addNotify()}.
+     */
+    private ParentResizeListener parentResizeListener;
     private JScrollPane scrollPane = null;
+    private VirtualRows virtualRows = null;
 
     /**
      * Defaults width & height to 100% of the WINDOW.
@@ -68,6 +155,10 @@ public class BLayout extends JPanel {
         this.isCropToContent = isCropToContent;
     }
 
+    /**
+     * Sets the size to the provided percentages of the parent (the window if null),
+     * which is kept up to date when the parent gets resized.
+     */
     public BLayout(Container parent, int widthPercent, int heightPercent) {
         super(new InternalBetterLayout(new Dimension(0, 0)));
         this.parent = parent;
@@ -75,10 +166,69 @@ public class BLayout extends JPanel {
         updateSize(widthPercent, heightPercent);
     }
 
+    /**
+     * Starts listening to resizes of the {@link #parent}, if the percent size of this layout is not
+     * resolved by the parent layout and does not {@link #isCropToContent}, and catches up on resizes before. <br>
+     * The listener gets removed again in {@link #removeNotify()}, thus removed layouts are not referenced by their parent.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (parent != null && parentResizeListener == null && !isCropToContent && !isPercentOfParentLayout()) {
+            parentResizeListener = new ParentResizeListener(this);
+            parent.addComponentListener(parentResizeListener);
+            updateSize(widthPercent, heightPercent);
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        if (parentResizeListener != null) {
+            parent.removeComponentListener(parentResizeListener);
+            parentResizeListener = null;
+        }
+        super.removeNotify();
+    }
+
+    /**
+     * Returns true if this layout is a child component of its {@link #parent},
+     * which is a {@link BLayout} that thus resolves the percent size of this layout in its layout pass.
+     */
+    boolean isPercentOfParentLayout() {
+        return parent instanceof BLayout && getParent() == parent && !isCropToContent;
+    }
+
+    /**
+     * Keeps the percent size of a displayable layout up to date, when its {@link #parent} is not laid out by it.
+     * Only weakly references the layout, so that the parent does not keep it alive, in case it never gets removed.
+     */
+    private static class ParentResizeListener extends ComponentAdapter {
+        private final WeakReference<BLayout> layout;
+
+        ParentResizeListener(BLayout layout) {
+            this.layout = new WeakReference<>(layout);
+        }
+
+        @Override
+        public void componentResized(ComponentEvent e) {
+            BLayout ly = layout.get();
+            if (ly == null) {
+                e.getComponent().removeComponentListener(this);
+                return;
+            }
+            if (!ly.isCropToContent && !ly.isPercentOfParentLayout()) { // Otherwise resolved by the parent in its layout pass
+                ly.updateSize(ly.widthPercent, ly.heightPercent);
+                ly.revalidate();
+            }
+        }
+    }
+
     /**
      * Call {@link #refresh()} to see the changes on the UI. <br>
      */
     public void updateSize(int widthPercent, int heightPercent) {
+        this.widthPercent = widthPercent;
+        this.heightPercent = heightPercent;
         int parentWidth, parentHeight;
         if (parent != null) {
             parentWidth = parent.getWidth();
@@ -88,8 +238,8 @@ public class BLayout extends JPanel {
             parentHeight = Toolkit.getDefaultToolkit().getScreenSize().height;
         }
 
-        Dimension size = new Dimension(parentWidth / 100 * widthPercent,
-                parentHeight / 100 * heightPercent);
+        Dimension size = new Dimension(Style.percentOf(parentWidth, widthPercent),
+                Style.percentOf(parentHeight, heightPercent));
 
         // Update layout sizes
         ((InternalBetterLayout) getLayout()).minimumSize = size;
@@ -102,10 +252,57 @@ public class BLayout extends JPanel {
         setMaximumSize(size);
     }
 
+    /**
+     * Does a full layout pass on the next validation, re-measuring all child components,
+     * and refreshes the UI.
+     */
     public void refresh() {
+        markAllDirty();
         UI.refresh(this);
     }
 
+    /**
+     * Repaints this layout once its pending layout pass ran: only the regions of child components
+     * that were moved or resized, or the whole layout if none were. <br>
+     * Repaints the whole layout right away, if no pass is pending, because it's valid or not showing.
+     */
+    public void repaintAfterLayout() {
+        synchronized (getTreeLock()) {
+            if (!isValid() && isShowing()) {
+                ((InternalBetterLayout) getLayout()).isRepaintRequested = true;
+                return;
+            }
+        }
+        repaint();
+    }
+
+    /**
+     * Marks all rows dirty, so that the next layout pass re-measures all child components. <br>
+     * This doesn't invalidate this container.
+     */
+    public void markAllDirty() {
+        synchronized (getTreeLock()) {
+            ((InternalBetterLayout) getLayout()).markAllDirty();
+        }
+    }
+
+    /**
+     * Marks the row of the provided child component dirty, so that it gets re-measured in the next layout pass. <br>
+     * Only needed for changes that neither go through its {@link CompWrapper},
+     * nor invalidate the component, nor change its preferred size via {@link Component#setPreferredSize(Dimension)}. <br>
+     * This doesn't invalidate this container.
+     */
+    public void markDirty(Component comp) {
+        CompWrapper compWrapper = compsAndStyles.get(comp);
+        if (compWrapper != null) markDirty(compWrapper, false);
+    }
+
+    void markDirty(CompWrapper compWrapper, boolean isStructural) {
+        synchronized (getTreeLock()) {
+            ((InternalBetterLayout) getLayout()).markDirty(compWrapper, isStructural);
+        }
+    }
+
     /**
      * Access this container in a thread-safe way. <br>
      * Performs {@link UI#revalidateAllUp(Component, boolean)} when done running the provided code. <p>
@@ -114,6 +311,7 @@ public class BLayout extends JPanel {
      * child containers that are used in the provided code.
      *
      * @param code to be run in this containers' context.
+     * @see #accessLater(Runnable)
      */
     public synchronized BLayout access(Runnable code) {
         code.run();
@@ -121,6 +319,20 @@ public class BLayout extends JPanel {
         return this;
     }
 
+    /**
+     * Queues the provided code, that changes this container or its child components, from any thread,
+     * without blocking or locking. <br>
+     * It runs later on the event dispatch thread, together with all other changes queued in the same frame,
+     * followed by a single validation per affected validate root, via {@link UI#revalidateAllUp(java.util.Collection)},
+     * see {@link #mutationQueue}.
+     *
+     * @param code to be run in this containers' context.
+     */
+    public BLayout accessLater(Runnable code) {
+        mutationQueue.enqueue(this, code);
+        return this;
+    }
+
     /**
      * Adds this component horizontally and
      * additionally returns its {@link CompWrapper}. <p>
@@ -129,10 +341,8 @@ public class BLayout extends JPanel {
      */
     public CompWrapper addH(Component comp) {
         super.add(comp);
-        CompWrapper compWrapper = new CompWrapper(comp);
-        compWrapper.map.putAll(defaultCompCompWrapper.map); // Add defaults
+        CompWrapper compWrapper = compsAndStyles.get(comp); // Registered with defaults by addImpl()
         compWrapper.horizontal();
-        compsAndStyles.put(comp, compWrapper);
         return compWrapper;
     }
 
@@ -153,11 +363,20 @@ public class BLayout extends JPanel {
      * {@link #defaultCompCompWrapper} of this container.
      */
     public CompWrapper addV(Component comp) {
-        super.add(comp);
-        CompWrapper compWrapper = new CompWrapper(comp);
-        compWrapper.map.putAll(defaultCompCompWrapper.map); // Add defaults
+        return addV(comp, -1);
+    }
+
+    /**
+     * Adds this component vertically at the provided index and
+     * additionally returns its {@link CompWrapper}.
+     *
+     * @param index position in the child components list, or -1 to append it.
+     * @see #addV(Component)
+     */
+    public CompWrapper addV(Component comp, int index) {
+        super.add(comp, index);
+        CompWrapper compWrapper = compsAndStyles.get(comp); // Registered with defaults by addImpl()
         compWrapper.vertical();
-        compsAndStyles.put(comp, compWrapper);
         return compWrapper;
     }
 
@@ -171,6 +390,121 @@ public class BLayout extends JPanel {
         return this;
     }
 
+    /**
+     * Adds a placeholder horizontally, that gets replaced by the component of the provided supplier,
+     * the first time it's showing and in view, and returns the placeholders' {@link CompWrapper}, which the component takes over.
+     *
+     * @see LazyComponent
+     */
+    public CompWrapper addLazyH(Supplier<? extends Component> supplier) {
+        return addH(new LazyComponent(supplier));
+    }
+
+    /**
+     * Adds a placeholder vertically, that gets replaced by the component of the provided supplier,
+     * the first time it's showing and in view, and returns the placeholders' {@link CompWrapper}, which the component takes over.
+     *
+     * @see LazyComponent
+     */
+    public CompWrapper addLazyV(Supplier<? extends Component> supplier) {
+        return addV(new LazyComponent(supplier));
+    }
+
+    /**
+     * Puts the provided replacement into the slot of the provided child component,
+     * together with its {@link CompWrapper}.
+     */
+    void replace(Component comp, Component replacement) {
+        synchronized (getTreeLock()) {
+            int index = getComponentZOrder(comp);
+            CompWrapper compWrapper = compsAndStyles.remove(comp);
+            remove(index);
+            if (compWrapper != null) {
+                compWrapper.component = replacement;
+                compsAndStyles.put(replacement, compWrapper);
+            }
+            super.add(replacement, index);
+        }
+    }
+
+    /**
+     * Registers the added component in {@link #compsAndStyles}, with the {@link #defaultCompCompWrapper} styles,
+     * unless it already has styles, like after {@link #replace(Component, Component)}.
+     */
+    @Override
+    protected void addImpl(Component comp, Object constraints, int index) {
+        super.addImpl(comp, constraints, index);
+        // Registration and listener get removed in InternalBetterLayout#removeLayoutComponent()
+        if (!compsAndStyles.containsKey(comp)) {
+            CompWrapper compWrapper = new CompWrapper(comp);
+            compWrapper.inherit(defaultCompCompWrapper); // Add defaults
+            compsAndStyles.put(comp, compWrapper);
+        }
+        comp.addPropertyChangeListener("preferredSize", ((InternalBetterLayout) getLayout()).preferredSizeListener);
+    }
+
+    /**
+     * Paints the debug lines and the layout heat map on top of the child components, if enabled.
+     *
+     * @see #isDebug
+     * @see #heatMapSeconds
+     */
+    @Override
+    protected void paintChildren(Graphics g) {
+        super.paintChildren(g);
+        if (isDebug) ((InternalBetterLayout) getLayout()).paintDebugLines(g);
+        int seconds = heatMapSeconds;
+        if (seconds > 0) {
+            int passes = stats.getRecentPasses(seconds);
+            int alpha = (int) (Math.min(1.0, passes / (double) Math.max(1, heatMapMaxPasses)) * 160);
+            g.setColor(new Color(255, 0, 0, alpha));
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setColor(Color.black);
+            g.drawString(String.valueOf(passes), 2, g.getFontMetrics().getAscent());
+        }
+    }
+
+    /**
+     * Returns the visible child component at the provided position in O(log n), via the row structure of the last layout pass,
+     * instead of checking each child component. <br>
+     * Falls back to the regular search while the child components might not match the last pass,
+     * like while this layout is invalid or a child layout cropped itself afterwards.
+     * Returns this if the position is inside this layout, but not inside a child component, and null if outside.
+     */
+    @Override
+    public Component getComponentAt(int x, int y) {
+        synchronized (getTreeLock()) {
+            InternalBetterLayout layout = (InternalBetterLayout) getLayout();
+            if (!isValid() || layout.isHitIndexStale) return super.getComponentAt(x, y);
+            if (!contains(x, y)) return null;
+            Component comp = layout.componentAt(x, y);
+            if (comp == null) return this;
+            if (!comp.contains(x - comp.getX(), y - comp.getY())) // Moved by somebody else, or not rectangular
+                return super.getComponentAt(x, y);
+            return comp;
+        }
+    }
+
+    /**
+     * Like {@link #getComponentAt(int, int)}, but returns the deepest visible component at the provided position,
+     * searching child layouts in O(log n) too.
+     */
+    @Override
+    public Component findComponentAt(int x, int y) {
+        synchronized (getTreeLock()) {
+            if (!isValid() || ((InternalBetterLayout) getLayout()).isHitIndexStale) return super.findComponentAt(x, y);
+            if (!isVisible() || !contains(x, y)) return null;
+            Component comp = getComponentAt(x, y);
+            if (comp == this || comp == null) return this;
+            if (!comp.isVisible()) return super.findComponentAt(x, y);
+            if (comp instanceof Container) {
+                Component deepest = ((Container) comp).findComponentAt(x - comp.getX(), y - comp.getY());
+                if (deepest != null) return deepest;
+            }
+            return comp;
+        }
+    }
+
     /**
      * @throws IllegalArgumentException when provided layout
      *                                  not of type {@link InternalBetterLayout}.
@@ -212,6 +546,36 @@ public class BLayout extends JPanel {
         return this;
     }
 
+    /**
+     * Like {@link #makeScrollable()}, but virtualized: instead of adding all rows,
+     * only the rows visible in the {@link JScrollPane} (plus a few above and below)
+     * get created via the provided factory and added to this layout.
+     * Rows scrolled out of view get recycled. <p>
+     * <p>
+     * This layout keeps its width and its height gets set to the total height of all rows,
+     * thus {@link #isCropToContent} is set to false.
+     * Use {@link #getVirtualRows()} to change the row count later.
+     *
+     * @param rowCount   total amount of rows.
+     * @param rowFactory creates the component for a row, or updates a recycled one.
+     * @throws NullPointerException if {@link #parent} is null.
+     * @see VirtualRows
+     */
+    public BLayout makeScrollable(int rowCount, VirtualRows.RowFactory rowFactory) {
+        makeScrollable();
+        this.isCropToContent = false;
+        this.virtualRows = new VirtualRows(this, scrollPane, rowCount, rowFactory);
+        return this;
+    }
+
+    /**
+     * Returns the virtualized rows of this layout, or null if
+     * it wasn't made scrollable via {@link #makeScrollable(int, VirtualRows.RowFactory)}.
+     */
+    public VirtualRows getVirtualRows() {
+        return virtualRows;
+    }
+
     public BLayout makeUnscrollable() {
         if (scrollPane == null) return this;
         int i = 0;
@@ -230,6 +594,10 @@ public class BLayout extends JPanel {
 
     public BLayout scrollToEndV() {
         if (scrollPane == null) return this;
+        if (virtualRows != null) {
+            virtualRows.scrollToEnd();
+            return this;
+        }
         JScrollBar bar = scrollPane.getVerticalScrollBar();
         bar.setValue(bar.getMaximum());
         return this;
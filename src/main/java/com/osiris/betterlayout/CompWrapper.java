@@ -12,22 +12,47 @@ import java.awt.*;
 import java.awt.event.*;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.function.Consumer;
 
 /**
- * Wrapper around a {@link Style}s map that
+ * Wrapper around a components' {@link Style}s that
  * provides util methods for setting and retrieving stuff.
  */
 public class CompWrapper {
     /**
-     * Map containing the actual styles.
+     * Map view of {@link #styles}, kept for compatibility.
+     * Writing to it parses the value once and updates {@link #styles}. <br>
+     * Final since the styles are not stored in it, thus assigning another map would have no effect,
+     * use {@link Map#putAll(Map)} instead.
      *
      * @see Style
      */
-    public Map<String, String> map;
+    public final Map<String, String> map = new StyleMap(this);
+    /**
+     * The actual styles, packed into a single long.
+     * This is what the layout reads, via {@link #getStyles()}.
+     *
+     * @see Style
+     */
+    volatile long styles;
+    /**
+     * The sheet that provides all styles not set on this wrapper itself, or null.
+     */
+    volatile StyleSheet sheet;
+    /**
+     * {@link StyleSheet#version} of the {@link #sheet} the styles are based on.
+     */
+    private volatile int sheetVersion;
+    /**
+     * Bits of the styles that were set on this wrapper itself, thus override the {@link #sheet}.
+     */
+    long ownMask;
+    /**
+     * Index of {@link #component} inside its {@link BLayout}, as of the last layout pass, or -1.
+     */
+    int index = -1;
     /**
      * Contains details relevant to debugging
      * layouts and components.
@@ -47,49 +72,155 @@ public class CompWrapper {
         this(component, null);
     }
 
+    /**
+     * @param map styles to copy into this wrapper, can be null.
+     *            Later changes to the provided map are not taken over, write to {@link #map} instead.
+     */
     public CompWrapper(Component component, Map<String, String> map) {
         this.component = component;
-        if (map == null) this.map = new HashMap<>();
-        else this.map = map;
+        if (map != null) this.map.putAll(map);
+    }
+
+    /**
+     * Returns the packed styles, after taking over changes of the {@link #sheet}.
+     */
+    long getStyles() {
+        StyleSheet sheet = this.sheet;
+        if (sheet != null && sheet.version != sheetVersion) mergeSheet(sheet);
+        return styles;
+    }
+
+    /**
+     * Takes over the styles of the provided sheet, except the own ones.
+     * Synchronized, since {@link StyleSheet#edit(Consumer)} can be used from any thread,
+     * thus the merge happens in whatever thread reads the styles first.
+     */
+    private synchronized void mergeSheet(StyleSheet sheet) {
+        int version = sheet.version; // Before reading its styles, thus a concurrent edit causes another merge
+        if (sheet != this.sheet || version == sheetVersion) return;
+        styles = (sheet.styles & ~ownMask) | (styles & ownMask);
+        sheetVersion = version;
+    }
+
+    /**
+     * Sets the packed styles and marks the row of {@link #component} dirty, if it changed.
+     *
+     * @param mask the bits that were set on purpose, which from now on override the {@link #sheet}.
+     */
+    void setStyles(long styles, long mask) {
+        long oldStyles;
+        synchronized (this) {
+            ownMask |= mask;
+            oldStyles = getStyles();
+            if (oldStyles == styles) return;
+            this.styles = styles;
+        }
+        boolean isStructural = Style.isHorizontal(oldStyles) != Style.isHorizontal(styles);
+        if (component != null && component.getParent() instanceof BLayout)
+            ((BLayout) component.getParent()).markDirty(this, isStructural);
+    }
+
+    private CompWrapper set(long mask, long bits) {
+        setStyles((getStyles() & ~mask) | bits, mask);
+        return this;
+    }
+
+    // STYLE SHEET
+
+    /**
+     * Takes all styles not set on this wrapper itself from the provided sheet, including its future changes,
+     * instead of storing a copy of them. Null removes the sheet, keeping its current styles as own styles.
+     *
+     * @see StyleSheet
+     */
+    public CompWrapper sheet(StyleSheet sheet) {
+        long styles;
+        synchronized (this) {
+            styles = getStyles();
+            if (sheet == null) ownMask = -1L;
+            else {
+                int version = sheet.version;
+                styles = (sheet.styles & ~ownMask) | (styles & ownMask);
+                sheetVersion = version;
+            }
+            this.sheet = sheet;
+        }
+        if (sheet != null) registerAt(sheet);
+        setStyles(styles, 0);
+        return this;
+    }
+
+    public StyleSheet getSheet() {
+        return sheet;
+    }
+
+    /**
+     * Removes all styles set on this wrapper itself, so that only the {@link #sheet} applies.
+     */
+    public CompWrapper resetToSheet() {
+        synchronized (this) {
+            ownMask = 0;
+        }
+        return sheet(sheet);
+    }
+
+    /**
+     * Takes over the sheet and own styles of the provided defaults, like {@link BLayout#defaultCompCompWrapper}.
+     * Cheaper than copying their map, since the styles of the sheet are shared.
+     */
+    void inherit(CompWrapper defaults) {
+        long styles = defaults.getStyles();
+        synchronized (this) {
+            ownMask = defaults.ownMask;
+            this.styles = styles;
+        }
+        sheet(defaults.sheet);
+        ((StyleMap) map).putExtras((StyleMap) defaults.map);
+    }
+
+    /**
+     * Registers the container of {@link #component} as user of the provided sheet, thus changes
+     * of the sheet reach it.
+     */
+    private void registerAt(StyleSheet sheet) {
+        if (component != null && component.getParent() instanceof BLayout)
+            sheet.addUser((BLayout) component.getParent());
     }
 
     // ALIGNMENT
 
     public CompWrapper vertical() {
-        map.put(Style.vertical.key, Style.vertical.value);
-        return this;
+        return set(Style.ALIGN_MASK, Style.ALIGN_VERTICAL);
     }
 
     public CompWrapper horizontal() {
-        map.put(Style.horizontal.key, Style.horizontal.value);
-        return this;
+        return set(Style.ALIGN_MASK, Style.ALIGN_HORIZONTAL);
+    }
+
+    public boolean isHorizontal() {
+        return Style.isHorizontal(getStyles());
     }
 
     // POSITION
 
     public CompWrapper left() {
-        map.put(Style.left.key, Style.left.value);
-        return this;
+        return set(Style.POS_MASK, Style.POS_LEFT);
     }
 
     public CompWrapper right() {
-        map.put(Style.right.key, Style.right.value);
-        return this;
+        return set(Style.POS_MASK, Style.POS_RIGHT);
     }
 
     public CompWrapper top() {
-        map.put(Style.top.key, Style.top.value);
-        return this;
+        return set(Style.POS_MASK, Style.POS_TOP);
     }
 
     public CompWrapper bottom() {
-        map.put(Style.bottom.key, Style.bottom.value);
-        return this;
+        return set(Style.POS_MASK, Style.POS_BOTTOM);
     }
 
     public CompWrapper center() {
-        map.put(Style.center.key, Style.center.value);
-        return this;
+        return set(Style.POS_MASK, Style.POS_CENTER);
     }
 
     // PADDING
@@ -98,58 +229,50 @@ public class CompWrapper {
      * Adds default padding to the left, right, top and bottom.
      */
     public CompWrapper padding() {
-        map.put(Style.padding_left.key, Style.padding_left.value);
-        map.put(Style.padding_right.key, Style.padding_right.value);
-        map.put(Style.padding_top.key, Style.padding_top.value);
-        map.put(Style.padding_bottom.key, Style.padding_bottom.value);
-        return this;
+        return padding(Style.padding_s);
     }
 
     public CompWrapper padding(int px) {
-        map.put(Style.padding_left.key, "" + (byte) px);
-        map.put(Style.padding_right.key, "" + (byte) px);
-        map.put(Style.padding_top.key, "" + (byte) px);
-        map.put(Style.padding_bottom.key, "" + (byte) px);
+        long styles = Style.withPadding(getStyles(), Style.PADDING_LEFT, (byte) px);
+        styles = Style.withPadding(styles, Style.PADDING_RIGHT, (byte) px);
+        styles = Style.withPadding(styles, Style.PADDING_TOP, (byte) px);
+        setStyles(Style.withPadding(styles, Style.PADDING_BOTTOM, (byte) px), Style.PADDINGS_MASK);
         return this;
     }
 
     public CompWrapper paddingLeft() {
-        map.put(Style.padding_left.key, Style.padding_left.value);
-        return this;
+        return paddingLeft(Style.padding_s);
     }
 
     public CompWrapper paddingLeft(int px) {
-        map.put(Style.padding_left.key, "" + (byte) px);
+        setStyles(Style.withPadding(getStyles(), Style.PADDING_LEFT, (byte) px), Style.paddingMask(Style.PADDING_LEFT));
         return this;
     }
 
     public CompWrapper paddingRight() {
-        map.put(Style.padding_right.key, Style.padding_right.value);
-        return this;
+        return paddingRight(Style.padding_s);
     }
 
     public CompWrapper paddingRight(int px) {
-        map.put(Style.padding_right.key, "" + (byte) px);
+        setStyles(Style.withPadding(getStyles(), Style.PADDING_RIGHT, (byte) px), Style.paddingMask(Style.PADDING_RIGHT));
         return this;
     }
 
     public CompWrapper paddingTop() {
-        map.put(Style.padding_top.key, Style.padding_top.value);
-        return this;
+        return paddingTop(Style.padding_s);
     }
 
     public CompWrapper paddingTop(int px) {
-        map.put(Style.padding_top.key, "" + (byte) px);
+        setStyles(Style.withPadding(getStyles(), Style.PADDING_TOP, (byte) px), Style.paddingMask(Style.PADDING_TOP));
         return this;
     }
 
     public CompWrapper paddingBottom() {
-        map.put(Style.padding_bottom.key, Style.padding_bottom.value);
-        return this;
+        return paddingBottom(Style.padding_s);
     }
 
     public CompWrapper paddingBottom(int px) {
-        map.put(Style.padding_bottom.key, "" + (byte) px);
+        setStyles(Style.withPadding(getStyles(), Style.PADDING_BOTTOM, (byte) px), Style.paddingMask(Style.PADDING_BOTTOM));
         return this;
     }
 
@@ -157,13 +280,29 @@ public class CompWrapper {
      * Deletes all the padding.
      */
     public CompWrapper delPadding() {
-        map.remove(Style.padding_left.key);
-        map.remove(Style.padding_right.key);
-        map.remove(Style.padding_top.key);
-        map.remove(Style.padding_bottom.key);
+        setStyles(getStyles() & ~Style.PADDINGS_MASK, Style.PADDINGS_MASK);
         return this;
     }
 
+    /**
+     * Returns the left padding in pixels, or 0 if not set.
+     */
+    public byte getPaddingLeft() {
+        return Style.padding(getStyles(), Style.PADDING_LEFT);
+    }
+
+    public byte getPaddingRight() {
+        return Style.padding(getStyles(), Style.PADDING_RIGHT);
+    }
+
+    public byte getPaddingTop() {
+        return Style.padding(getStyles(), Style.PADDING_TOP);
+    }
+
+    public byte getPaddingBottom() {
+        return Style.padding(getStyles(), Style.PADDING_BOTTOM);
+    }
+
     // JAVA AWT COMPONENT STUFF
 
     /**
@@ -177,15 +316,22 @@ public class CompWrapper {
     /**
      * Relies on the component having a parent, so make
      * sure to call this after adding it to a {@link Container}. <p>
+     * Inside a {@link BLayout} the width is kept as style and resolved in each layout pass from the
+     * current width of the container, thus follows its resizes. Inside any other container it's computed once. <p>
      * This invalidates the container and thus to see changes in the UI
      * make sure to call this within {@link BLayout#access(Runnable)} or execute {@link Component#revalidate()} manually.
      *
      * @throws NullPointerException if {@link #component} null or its parent is null.
+     * @throws IllegalArgumentException if the percentage is not between 0 and 254.
      */
     public CompWrapper width(int widthPercent) {
         Objects.requireNonNull(component);
         Objects.requireNonNull(component.getParent());
-        updateWidth(component.getParent(), component, widthPercent);
+        checkPercent(widthPercent);
+        if (component.getParent() instanceof BLayout)
+            setStyles(Style.withWidthPercent(getStyles(), widthPercent), Style.WIDTH_PERCENT_MASK);
+        else
+            updateWidth(component.getParent(), component, widthPercent);
         return this;
     }
 
@@ -200,23 +346,58 @@ public class CompWrapper {
     /**
      * Relies on the component having a parent, so make
      * sure to call this after adding it to a {@link Container}. <p>
+     * Inside a {@link BLayout} the height is kept as style and resolved in each layout pass from the
+     * current height of the container, thus follows its resizes. Inside any other container it's computed once. <p>
      * This invalidates the container and thus to see changes in the UI
      * make sure to call this within {@link BLayout#access(Runnable)} or execute {@link Component#revalidate()} manually.
      *
      * @throws NullPointerException if {@link #component} null or its parent is null.
+     * @throws IllegalArgumentException if the percentage is not between 0 and 254.
      */
     public CompWrapper height(int heightPercent) {
         Objects.requireNonNull(component);
         Objects.requireNonNull(component.getParent());
-        updateHeight(component.getParent(), component, heightPercent);
+        checkPercent(heightPercent);
+        if (component.getParent() instanceof BLayout)
+            setStyles(Style.withHeightPercent(getStyles(), heightPercent), Style.HEIGHT_PERCENT_MASK);
+        else
+            updateHeight(component.getParent(), component, heightPercent);
+        return this;
+    }
+
+    /**
+     * Removes the width and height percentages, so that the component gets its preferred size again.
+     */
+    public CompWrapper delPercentSize() {
+        setStyles(Style.withHeightPercent(Style.withWidthPercent(getStyles(), -1), -1),
+                Style.WIDTH_PERCENT_MASK | Style.HEIGHT_PERCENT_MASK);
         return this;
     }
 
+    /**
+     * Returns the width in percent of the parent {@link BLayout}, or -1 if not set.
+     */
+    public int getWidthPercent() {
+        return Style.widthPercent(getStyles());
+    }
+
+    /**
+     * Returns the height in percent of the parent {@link BLayout}, or -1 if not set.
+     */
+    public int getHeightPercent() {
+        return Style.heightPercent(getStyles());
+    }
+
+    private static void checkPercent(int percent) {
+        if (percent < 0 || percent > 254)
+            throw new IllegalArgumentException("Percentage must be between 0 and 254, but was " + percent + ".");
+    }
+
     private void updateWidth(Component parent, Component target, int widthPercent) {
         int parentWidth; // If no parent provided use the screen dimensions
         if (parent != null) parentWidth = parent.getWidth();
         else parentWidth = Toolkit.getDefaultToolkit().getScreenSize().width;
-        Dimension size = new Dimension(parentWidth / 100 * widthPercent, target.getHeight());
+        Dimension size = new Dimension(Style.percentOf(parentWidth, widthPercent), target.getHeight());
         target.setSize(size);
         target.setPreferredSize(size);
         target.setMinimumSize(size);
@@ -227,7 +408,7 @@ public class CompWrapper {
         int parentHeight; // If no parent provided use the screen dimensions
         if (parent != null) parentHeight = parent.getHeight();
         else parentHeight = Toolkit.getDefaultToolkit().getScreenSize().height;
-        Dimension size = new Dimension(target.getWidth(), parentHeight / 100 * heightPercent);
+        Dimension size = new Dimension(target.getWidth(), Style.percentOf(parentHeight, heightPercent));
         target.setSize(size);
         target.setPreferredSize(size);
         target.setMinimumSize(size);
@@ -24,6 +24,10 @@ public class DebugInfo {
     public byte paddingLeft, paddingRight, paddingTop, paddingBottom;
     public int width;
     public int height;
+    /**
+     * The preferred size of the component, at the time of the layout pass.
+     */
+    public int preferredWidth, preferredHeight;
 
     public DebugInfo() {
     }
@@ -8,11 +8,13 @@
 
 package com.osiris.betterlayout;
 
-import com.osiris.betterlayout.utils.StyledComponent;
-
+import javax.swing.*;
 import java.awt.*;
-import java.util.List;
-import java.util.*;
+import java.beans.PropertyChangeListener;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Note that this class is private to classes outside this package, due to it
@@ -22,13 +24,116 @@ import java.util.*;
  * Features: <br>
  * - Ensures the container never expands if the components require more space.
  * This is done by overriding the container max size at {@link #preferredLayoutSize(Container)}. <br>
+ * - Incremental layout: the rows and child bounds of the last pass are kept,
+ * and only dirty rows get re-measured. Rows below a dirty row only get moved if its height changed,
+ * all other child components are not touched at all. If nothing is dirty the pass is skipped. <br>
+ * <p>
+ * A row gets dirty when one of its child components: <br>
+ * - changes its styles via its {@link CompWrapper}, or its preferred size via {@link Component#setPreferredSize(Dimension)}. <br>
+ * - is invalid, which Swing components are after changes to their content, like {@link javax.swing.JLabel#setText(String)}.
+ * Note that AWT considers components that are not displayable always invalid. <br>
+ * - was moved or resized by somebody else. <br>
+ * - was added, removed or hidden, in which case this row and all rows below get rebuilt. <br>
+ * Use {@link BLayout#markDirty(Component)} or {@link BLayout#refresh()} for any other changes. <p>
+ * All per-pass state lives in arrays that are reused and only grow, thus a pass without
+ * dirty rows allocates nothing. Measuring a dirty row still allocates the {@link Dimension}s
+ * returned by {@link Component#getPreferredSize()}, unless the size is cached by {@link BLayout#measureCache}. <p>
+ * Dirty rows go through three steps: measuring the components, computing the geometry
+ * via the AWT independent {@link LayoutCore} and applying the bounds to the components.
+ * With {@link BLayout#isAsyncLayout} the computing step runs on another thread, on a copy of the core. <p>
+ * During continuous resizing, see {@link BLayout#draftResizeMillis}, the measuring step reuses the sizes
+ * of the last measure and one full pass follows after the resizing stopped.
  */
 class InternalBetterLayout implements LayoutManager {
     public int minWidth = 0, minHeight = 0;
     public int preferredWidth = 0, preferredHeight = 0;
     public Dimension minimumSize, preferredSize;
-    int startX, startY;
-    private Dimension containerSize, containerPrefSize;
+    /**
+     * Marks the row of the component whose preferred size changed dirty.
+     */
+    final PropertyChangeListener preferredSizeListener = e -> {
+        Component comp = (Component) e.getSource();
+        if (comp.getParent() instanceof BLayout) {
+            CompWrapper compWrapper = ((BLayout) comp.getParent()).compsAndStyles.get(comp);
+            if (compWrapper != null) markDirty(compWrapper, false);
+        }
+    };
+
+    // CHILD COMPONENTS OF THE LAST PASS, BY INDEX
+    Component[] comps = new Component[0];
+    CompWrapper[] wrappers = new CompWrapper[0];
+    /**
+     * True if the child component was measured at its index, thus its size in the {@link #core} can be reused by draft passes.
+     */
+    private boolean[] isMeasured = new boolean[0];
+    /**
+     * True if a draft pass reused the size of the child component, thus it must be measured after the resizing stopped.
+     */
+    private boolean[] isDrafted = new boolean[0];
+    /**
+     * Node i is the child component i. Holds the rows, the measured sizes and styles of the child components
+     * in dirty rows at the time they were measured, and their bounds as set by the last pass.
+     */
+    final LayoutCore core = new LayoutCore();
+    /**
+     * Reused in every pass, to avoid allocations.
+     */
+    private final Insets insets = new Insets(0, 0, 0, 0);
+    /**
+     * Size of the container in the last pass, to detect resizes that affect child components with a percent size.
+     */
+    private int lastWidth = -1, lastHeight = -1;
+    /**
+     * Time of the last resize of the container in nanoseconds, to detect continuous resizing.
+     */
+    private long lastResizeNanos;
+    /**
+     * True if the current pass is a draft pass, see {@link BLayout#draftResizeMillis}.
+     */
+    private boolean isDraftPass;
+    /**
+     * True if the next pass re-measures the drafted child components.
+     */
+    private boolean isDraftFinishPass;
+    /**
+     * Runs {@link #finishDraft(BLayout)} once the resizing stopped, created on the first draft pass.
+     */
+    private Timer draftTimer;
+    /**
+     * Incremented for each asynchronous pass, results of older passes get dropped.
+     */
+    private volatile int asyncVersion;
+    /**
+     * Incremented on each {@link #markDirty(CompWrapper, boolean)} call,
+     * to detect rows that got dirty while an asynchronous pass was computing.
+     */
+    private int dirtyMarks;
+    private final ThrashDetector.Cycle thrashCycle = new ThrashDetector.Cycle();
+    /**
+     * True if the {@link BLayout#thrashDetector} froze the size of the container for the current pass.
+     */
+    private boolean isSizeFrozen;
+    /**
+     * True after {@link #restore(BLayout, ByteBuffer, int)}, until the next {@link #markAllDirty()}.
+     * Until then invalid child components don't make their row dirty, since they were never measured.
+     */
+    boolean isRestored;
+    /**
+     * True if the bounds in the {@link #core} might not match the child components until the next pass,
+     * because a child layout cropped itself after this pass, or an asynchronous pass is pending.
+     * Then {@link BLayout#getComponentAt(int, int)} can't use {@link #componentAt(int, int)}.
+     */
+    volatile boolean isHitIndexStale;
+    /**
+     * Region that needs to be repainted in the next pass, the union of the old and new bounds of changed
+     * and removed child components, empty if right is smaller than left.
+     */
+    private int dirtyLeft = Integer.MAX_VALUE, dirtyTop = Integer.MAX_VALUE, dirtyRight = Integer.MIN_VALUE, dirtyBottom = Integer.MIN_VALUE;
+    /**
+     * True if the next pass must repaint the container, even if no child component was moved or resized,
+     * see {@link BLayout#repaintAfterLayout()}.
+     */
+    boolean isRepaintRequested;
 
     public InternalBetterLayout(Dimension size) {
         this(size, size);
@@ -43,8 +148,22 @@ class InternalBetterLayout implements LayoutManager {
     public void addLayoutComponent(String name, Component comp) {
     }
 
+    /**
+     * Unregisters the component, which is still a child of its container at this point,
+     * and drops all references to it, without waiting for the next pass.
+     */
     @Override
     public void removeLayoutComponent(Component comp) {
+        comp.removePropertyChangeListener("preferredSize", preferredSizeListener);
+        if (comp.isVisible()) addDirtyRegion(comp.getX(), comp.getY(), comp.getWidth(), comp.getHeight()); // AWT does not repaint its area
+        if (!(comp.getParent() instanceof BLayout)) return;
+        CompWrapper compWrapper = ((BLayout) comp.getParent()).compsAndStyles.remove(comp);
+        if (compWrapper == null) return;
+        int i = compWrapper.index;
+        if (i < 0 || i >= core.count || wrappers[i] != compWrapper) return;
+        markDirty(compWrapper, true); // Its slot gets rebuilt
+        comps[i] = null;
+        wrappers[i] = null;
     }
 
     @Override
@@ -59,162 +178,655 @@ class InternalBetterLayout implements LayoutManager {
         return minimumSize;
     }
 
+    /**
+     * Marks the row of the provided child component dirty.
+     *
+     * @param isStructural true if the change affects the rows structure, like a changed alignment.
+     */
+    void markDirty(CompWrapper compWrapper, boolean isStructural) {
+        dirtyMarks++;
+        int i = compWrapper.index;
+        if (i < 0 || i >= core.count || wrappers[i] != compWrapper)
+            return; // Not laid out yet, thus gets measured in the next pass anyway
+        if (isStructural) core.firstStructuralChange = Math.min(core.firstStructuralChange, i);
+        else core.markDirty(i);
+    }
+
+    /**
+     * Marks everything dirty, so that the next pass is a full layout pass.
+     */
+    void markAllDirty() {
+        dirtyMarks++;
+        isRestored = false;
+        core.markAllDirty();
+    }
+
     @Override
     public void layoutContainer(Container _container) {
         BLayout container = (BLayout) _container;
+        if (!LayoutMetrics.isEnabled()) {
+            layout(container);
+            return;
+        }
+        long start = System.nanoTime();
+        int childrenLaidOut = layout(container);
+        LayoutMetrics.recordLayoutPass(container, System.nanoTime() - start, childrenLaidOut);
+    }
+
+    /**
+     * @return the amount of child components whose bounds were set.
+     */
+    private int layout(BLayout container) {
         synchronized (container.getTreeLock()) {
-            //container.setMaximumSize(preferredSize); // Make sure maximum is never bigger than preferred.
-            containerSize = container.getSize();
-            containerPrefSize = container.getPreferredSize();
-            if (containerSize.width < containerPrefSize.width || containerSize.height < containerPrefSize.height)
-                containerSize = containerPrefSize;
-            Insets insets = container.getInsets();
-            startX = insets.left;
-            startY = insets.top;
-            // To avoid memory filling up with leftover (already removed) components
-            // we replace the original compsAndStyles map after being done,
-            // with the map below, that only contains currently added/active components.
-            Map<Component, CompWrapper> newCompsAndStyles = new HashMap<>();
-            //System.err.println("\n\nLOOP FOR NEW CONTAINER: " + container.getClass().getSimpleName() + "/" + Integer.toHexString(container.hashCode()) +" startX="+startX+" startY="+startY);
-            Component[] components = container.getComponents();
-            for (Component comp : components) {
-                CompWrapper compWrapper = container.compsAndStyles.get(comp);
-                if (compWrapper == null) {
-                    compWrapper = new CompWrapper(comp); // Components added via the regular container add() methods
-                    compWrapper.map.putAll(container.defaultCompCompWrapper.map); // Add defaults
+            container.stats.layoutPasses++;
+            int firstRow = prepare(container);
+            int childrenLaidOut = 0;
+            isSizeFrozen = false;
+            if (firstRow < core.rowCount) {
+                container.stats.cacheMisses++;
+                isSizeFrozen = BLayout.thrashDetector.recordPass(container, thrashCycle);
+                if (!container.isAsyncLayout && hasParallelSubtrees(firstRow, container.parallelMeasureThreshold)) {
+                    SubtreePass pass = new SubtreePass(container, this, firstRow, container.parallelMeasureThreshold);
+                    measureRows(container, firstRow, pass);
+                    pass.invoke(); // Computes the root in this thread, forks go to the common pool
+                    return applySubtree(pass);
                 }
-                newCompsAndStyles.put(comp, compWrapper);
-            }
-            container.compsAndStyles = newCompsAndStyles;
-            java.util.List<StyledComponent[]> rows = toRows(newCompsAndStyles, components);
-            drawRows(rows);
-
-            if (container.isCropToContent) {
-                //System.err.println("\n\ncontainer: "+x+"x "+y+"y "+insideWidth+"w "+insideHeight+"h");
-                Rectangle boundsNow = container.getBounds();
-                int containerWidth = calcContainerWidth(rows);
-                int containerHeight = calcContainerHeight(rows);
-                //System.err.println("container-bounds: "+boundsNow.x+"x "+boundsNow.y+"y "+boundsNow.width+"w "+boundsNow.height+"h");
-                if (boundsNow.width < containerWidth || boundsNow.height < containerHeight) {
-                    // Check above is required to prevent infinite loop when inside another container.
-                    // Specially when inside a ScrollPane for example.
-                    container.setBounds(boundsNow.x, boundsNow.y, containerWidth, containerHeight);
-                    updateSizes(container, containerWidth, containerHeight);
+                measureRows(container, firstRow, null);
+                if (container.isAsyncLayout) {
+                    layoutAsync(container, firstRow);
+                    return 0; // Finished in applyAsync()
                 }
+                int touchedRows = core.computeRows(firstRow);
+                childrenLaidOut = applyRows(container, firstRow);
+                container.stats.rowsLaidOut += touchedRows;
+            } else
+                container.stats.cacheHits++; // Bounds of the last pass are still applied
+            finishPass(container);
+            return childrenLaidOut;
+        }
+    }
+
+    /**
+     * Brings the child components and rows arrays up to date with the container
+     * and returns the first row that needs to be measured or moved, or the row count if none.
+     */
+    private int prepare(BLayout container) {
+        //container.setMaximumSize(preferredSize); // Make sure maximum is never bigger than preferred.
+        container.getInsets(insets);
+        core.setStart(insets.left, insets.top); // A structural change if the insets changed
+        isHitIndexStale = false;
+        isDraftPass = false;
+        if (container.getWidth() != lastWidth || container.getHeight() != lastHeight) {
+            long now = System.nanoTime();
+            int draftMillis = BLayout.draftResizeMillis;
+            isDraftPass = draftMillis > 0 && lastWidth >= 0 && now - lastResizeNanos < draftMillis * 1_000_000L;
+            lastResizeNanos = now;
+            lastWidth = container.getWidth();
+            lastHeight = container.getHeight();
+            markPercentRowsDirty();
+        }
+        //System.err.println("\n\nLOOP FOR NEW CONTAINER: " + container.getClass().getSimpleName() + "/" + Integer.toHexString(container.hashCode()) +" startX="+startX+" startY="+startY);
+        int count = container.getComponentCount();
+        int firstChange = findChanges(container, count);
+        int firstRow = Integer.MAX_VALUE;
+        if (firstChange < count || count != core.count) {
+            // Rebuild the row of the component before the change too, since the changed component might join it
+            int fromRow = core.rowBefore(firstChange);
+            updateChildren(container, count, fromRow == 0 ? 0 : core.rowStart[fromRow]);
+            core.toRows(fromRow);
+            firstRow = fromRow;
+        }
+        core.firstStructuralChange = Integer.MAX_VALUE;
+        core.setWrapWidth(wrapWidth(container)); // Rows that need new break points only, get dirty without being measured
+        firstRow = Math.min(firstRow, core.firstDirtyRow()); // Rows before could have been marked dirty too
+        if (firstRow < core.rowCount) {
+            if (isDraftPass) {
+                container.stats.draftPasses++;
+                scheduleDraftFinish(container);
+            } else if (isDraftFinishPass)
+                container.stats.draftFinishPasses++;
+            isDraftFinishPass = false;
+        }
+        return firstRow;
+    }
+
+    /**
+     * Returns the width available for lines, if {@link BLayout#isWrap} is enabled, otherwise 0.
+     */
+    private int wrapWidth(BLayout container) {
+        return container.isWrap ? Math.max(1, container.getWidth() - insets.left - insets.right) : 0;
+    }
+
+    /**
+     * (Re)starts the {@link #draftTimer}, thus the drafted child components get measured
+     * once the container was not resized for {@link BLayout#draftResizeMillis}.
+     */
+    private void scheduleDraftFinish(BLayout container) {
+        if (draftTimer == null) {
+            draftTimer = new Timer(0, e -> finishDraft(container));
+            draftTimer.setRepeats(false);
+        }
+        draftTimer.setInitialDelay(BLayout.draftResizeMillis);
+        draftTimer.restart();
+    }
+
+    /**
+     * Marks the rows of the drafted child components dirty and revalidates the container,
+     * thus the next pass measures them.
+     */
+    private void finishDraft(BLayout container) {
+        synchronized (container.getTreeLock()) {
+            boolean hasDrafted = false;
+            for (int i = 0; i < core.count; i++) {
+                if (!isDrafted[i]) continue;
+                isDrafted[i] = false;
+                core.markDirty(i);
+                hasDrafted = true;
+            }
+            if (!hasDrafted) return;
+            dirtyMarks++;
+            isDraftFinishPass = true;
+        }
+        container.revalidate();
+        container.repaint();
+    }
+
+    /**
+     * Returns the visible child component at the provided position, as laid out by the last pass,
+     * or null if there is none, see {@link LayoutCore#nodeAt(int, int)}.
+     */
+    Component componentAt(int x, int y) {
+        int i = core.nodeAt(x, y);
+        return i < 0 || i >= core.count ? null : comps[i];
+    }
+
+    /**
+     * Repaints the dirty region and crops the container, if enabled and its size is not frozen by the {@link BLayout#thrashDetector}.
+     */
+    private void finishPass(BLayout container) {
+        repaintDirtyRegion(container);
+        if (container.isCropToContent && !isSizeFrozen) {
+            //System.err.println("\n\ncontainer: "+x+"x "+y+"y "+insideWidth+"w "+insideHeight+"h");
+            int containerWidth = core.getContentWidth();
+            int containerHeight = core.getContentHeight();
+            //System.err.println("container-bounds: "+container.getX()+"x "+container.getY()+"y "+container.getWidth()+"w "+container.getHeight()+"h");
+            if (container.getWidth() < containerWidth || container.getHeight() < containerHeight) {
+                // Check above is required to prevent infinite loop when inside another container.
+                // Specially when inside a ScrollPane for example.
+                container.setBounds(container.getX(), container.getY(), containerWidth, containerHeight);
+                updateSizes(container, containerWidth, containerHeight);
+                if (container.getParent() instanceof BLayout) // Its last pass did not know this size
+                    ((InternalBetterLayout) container.getParent().getLayout()).isHitIndexStale = true;
             }
-            if (container.isDebug) drawDebugLines(container); // Must be done after replacing the map
+        }
+        if (BLayout.heatMapSeconds > 0) {
+            container.stats.recordPassTime(System.nanoTime());
+            container.repaint(); // Update the tint
+        }
+    }
+
+    /**
+     * Lays out the child components with the provided sizes instead of measuring them,
+     * see {@link LayoutSnapshotCache}. The snapshot contains the width and height of each child component
+     * as ints, starting at the provided offset.
+     */
+    void restore(BLayout container, ByteBuffer snapshot, int offset) {
+        synchronized (container.getTreeLock()) {
+            container.getInsets(insets);
+            core.setStart(insets.left, insets.top);
+            core.setWrapWidth(wrapWidth(container));
+            int count = container.getComponentCount();
+            updateChildren(container, count, 0);
+            for (int i = 0; i < count * 2; i++) {
+                core.sizes[i] = snapshot.getInt(offset + i * 4);
+            }
+            Arrays.fill(isMeasured, 0, count, true);
+            core.toRows(0);
+            core.firstStructuralChange = Integer.MAX_VALUE;
+            core.computeRows(0);
+            applyRows(container, 0);
+            isSizeFrozen = false;
+            finishPass(container);
+            isRestored = true;
         }
     }
 
-    private int calcContainerHeight(java.util.List<StyledComponent[]> rows) {
-        int height = 0;
-        for (StyledComponent[] row : rows) {
-            if (row.length != 0)
-                height += row[0].compWrapper.info.totalHeight; // == rowHeight == the tallest component
+    /**
+     * Compares the current child components with the ones of the last pass,
+     * marks rows with invalid or externally moved/resized components dirty
+     * and returns the index of the first structural change (added, removed, replaced or
+     * hidden/shown component), or the provided count if there is none.
+     */
+    private int findChanges(BLayout container, int count) {
+        int end = Math.min(Math.min(count, core.count), core.firstStructuralChange);
+        boolean[] visible = core.visible, rowDirty = core.rowDirty, rowReflow = core.rowReflow;
+        int[] childRow = core.childRow, bounds = core.bounds;
+        for (int i = 0; i < end; i++) {
+            Component comp = container.getComponent(i);
+            if (comp != comps[i]) return i;
+            boolean isVisible = comp.isVisible();
+            if (isVisible != visible[i]) return i;
+            if (!isVisible || (rowDirty[childRow[i]] && !rowReflow[childRow[i]])) continue;
+            int j = i * 4;
+            if ((!comp.isValid() && !isRestored) || comp.getX() != bounds[j] || comp.getY() != bounds[j + 1]
+                    || comp.getWidth() != bounds[j + 2] || comp.getHeight() != bounds[j + 3])
+                core.markDirty(i);
         }
-        return height;
+        return end;
     }
 
-    private int calcContainerWidth(java.util.List<StyledComponent[]> rows) {
-        int width = 0;
-        for (StyledComponent[] row : rows) {
-            int rowWidth = 0;
-            for (StyledComponent styledComponent : row) {
-                rowWidth += styledComponent.compWrapper.info.totalWidth;
+    /**
+     * Updates the child components arrays, starting at the provided index.
+     */
+    private void updateChildren(BLayout container, int count, int from) {
+        if (comps.length < count) {
+            int capacity = Math.max(count, comps.length + (comps.length >> 1));
+            comps = Arrays.copyOf(comps, capacity);
+            wrappers = Arrays.copyOf(wrappers, capacity);
+            isMeasured = Arrays.copyOf(isMeasured, capacity);
+            isDrafted = Arrays.copyOf(isDrafted, capacity);
+        }
+        core.ensureCapacity(count);
+        for (int i = from; i < count; i++) {
+            Component comp = container.getComponent(i);
+            if (comp != comps[i]) {
+                isMeasured[i] = false;
+                isDrafted[i] = false;
+            }
+            CompWrapper compWrapper = container.compsAndStyles.get(comp);
+            if (compWrapper == null) {
+                compWrapper = new CompWrapper(comp); // Unregistered directly via compsAndStyles
+                compWrapper.inherit(container.defaultCompCompWrapper); // Add defaults
+                container.compsAndStyles.put(comp, compWrapper);
             }
-            if (rowWidth > width) width = rowWidth;
+            compWrapper.index = i;
+            if (compWrapper.info == null) compWrapper.info = new DebugInfo();
+            compWrapper.info.isHorizontal = isHorizontal(compWrapper);
+            comps[i] = comp;
+            wrappers[i] = compWrapper;
+            core.visible[i] = comp.isVisible();
+            core.styles[i] = compWrapper.getStyles(); // Measuring updates the paddings
+        }
+        for (int i = count; i < core.count; i++) {
+            comps[i] = null; // Allow garbage collection
+            wrappers[i] = null;
+            isMeasured[i] = false;
+            isDrafted[i] = false;
         }
-        return width;
-    }
-
-    private void drawRows(java.util.List<StyledComponent[]> rows) {
-        int x = startX;
-        int y = startY;
-        for (StyledComponent[] row : rows) {
-
-            // DETERMINE TOTAL HEIGHT & WIDTH FOR EACH COMPONENT IN ROW
-            for (StyledComponent styledComponent : row) {
-                Component comp = styledComponent.component;
-                CompWrapper compWrapper = styledComponent.compWrapper;
-                Dimension compSize = comp.getSize();
-                Dimension compPrefSize = comp.getPreferredSize();
-                if (compSize.width < compPrefSize.width || compSize.height < compPrefSize.height)
-                    compSize = compPrefSize;
-                int width = compSize.width;
-                int height = compSize.height;
-                int totalWidth = compSize.width;
-                int totalHeight = compSize.height;
-                byte paddingLeft = 0, paddingRight = 0, paddingTop = 0, paddingBottom = 0;
-                //System.err.println("at start: " + x + "x " + y + "y " + totalWidth + "w " + totalHeight + "h ");
-                String valPaddingLeft = compWrapper.map.get(Style.padding_left.key);
-                String valPaddingRight = compWrapper.map.get(Style.padding_right.key);
-                String valPaddingTop = compWrapper.map.get(Style.padding_top.key);
-                String valPaddingBottom = compWrapper.map.get(Style.padding_bottom.key);
-                if (valPaddingLeft != null) {
-                    paddingLeft = Byte.parseByte(valPaddingLeft);
-                    totalWidth += paddingLeft;
+        core.count = count;
+    }
+
+    /**
+     * Measures the visible components of dirty rows, starting at the provided row,
+     * and stores their sizes and styles in the {@link #core}.
+     * This is the only part of a pass, besides applying the bounds, that needs the components. <p>
+     * If a pass is provided, child layouts that crop to their content are not measured,
+     * but added to the pass, which computes their content size later. <br>
+     * Draft passes only measure child components that were not measured before.
+     */
+    private void measureRows(BLayout container, int firstRow, SubtreePass pass) {
+        LayoutCore core = this.core;
+        for (int r = firstRow; r < core.rowCount; r++) {
+            if (!core.rowDirty[r] || core.rowReflow[r]) continue; // Reflowed rows keep their sizes
+            for (int i = core.rowStart[r]; i < core.rowStart[r + 1]; i++) {
+                if (!core.visible[i]) continue;
+                Component comp = comps[i];
+                core.styles[i] = wrappers[i].getStyles();
+                if (pass != null && isNestedCrop(comp)) {
+                    BLayout child = (BLayout) comp;
+                    pass.addChild(((InternalBetterLayout) child.getLayout()).snapshot(child, pass.threshold), i);
+                    continue;
                 }
-                if (valPaddingRight != null) {
-                    paddingRight = Byte.parseByte(valPaddingRight);
-                    totalWidth += paddingRight;
+                DebugInfo info = wrappers[i].info;
+                int widthPercent = percentOf(comp, core.styles[i], true);
+                int heightPercent = percentOf(comp, core.styles[i], false);
+                if (widthPercent >= 0 && heightPercent >= 0) { // No need to measure
+                    info.preferredWidth = core.sizes[i * 2] = Style.percentOf(container.getWidth(), widthPercent);
+                    info.preferredHeight = core.sizes[i * 2 + 1] = Style.percentOf(container.getHeight(), heightPercent);
+                    continue;
                 }
-                if (valPaddingTop != null) {
-                    paddingTop = Byte.parseByte(valPaddingTop);
-                    totalHeight += paddingTop;
+                if (isDraftPass && isMeasured[i])
+                    isDrafted[i] = true; // Keeps the size of the last measure
+                else {
+                    long compPrefSize = BLayout.measureCache.getPreferredSize(comp);
+                    info.preferredWidth = MeasureCache.width(compPrefSize);
+                    info.preferredHeight = MeasureCache.height(compPrefSize);
+                    measure(i, comp.getWidth(), comp.getHeight(), info.preferredWidth, info.preferredHeight);
+                    isMeasured[i] = true;
+                    isDrafted[i] = false;
                 }
-                if (valPaddingBottom != null) {
-                    paddingBottom = Byte.parseByte(valPaddingBottom);
-                    totalHeight += paddingBottom;
+                if (widthPercent >= 0) core.sizes[i * 2] = Style.percentOf(container.getWidth(), widthPercent);
+                if (heightPercent >= 0) core.sizes[i * 2 + 1] = Style.percentOf(container.getHeight(), heightPercent);
+            }
+        }
+    }
+
+    /**
+     * Stores the size of the provided child component in the {@link #core},
+     * which is its current size, or its preferred size if the current size is smaller.
+     */
+    private void measure(int i, int width, int height, int preferredWidth, int preferredHeight) {
+        if (width < preferredWidth || height < preferredHeight) {
+            width = preferredWidth;
+            height = preferredHeight;
+        }
+        core.sizes[i * 2] = width;
+        core.sizes[i * 2 + 1] = height;
+    }
+
+    /**
+     * Returns the width or height of the provided child component in percent of the container, or -1 if not set.
+     * Child layouts created with a percent size of the container use it, unless overridden by their styles.
+     */
+    private static int percentOf(Component comp, long styles, boolean isWidth) {
+        int percent = isWidth ? Style.widthPercent(styles) : Style.heightPercent(styles);
+        if (percent < 0 && comp instanceof BLayout && ((BLayout) comp).isPercentOfParentLayout())
+            percent = isWidth ? ((BLayout) comp).widthPercent : ((BLayout) comp).heightPercent;
+        return percent;
+    }
+
+    /**
+     * Marks the rows of child components with a percent size dirty, since the size of the container changed.
+     */
+    private void markPercentRowsDirty() {
+        for (int i = 0; i < core.count; i++) {
+            if (core.visible[i] && (percentOf(comps[i], core.styles[i], true) >= 0 || percentOf(comps[i], core.styles[i], false) >= 0))
+                core.markDirty(i);
+        }
+    }
+
+    private static boolean isNestedCrop(Component comp) {
+        return comp instanceof BLayout && ((BLayout) comp).isCropToContent && !((BLayout) comp).isAsyncLayout;
+    }
+
+    /**
+     * Returns true if at least two child layouts that crop to their content, in dirty rows, starting at the provided row,
+     * contain at least the provided amount of components, thus are worth measuring in parallel.
+     */
+    private boolean hasParallelSubtrees(int firstRow, int threshold) {
+        if (threshold <= 0) return false;
+        int bigSubtrees = 0;
+        for (int r = firstRow; r < core.rowCount; r++) {
+            if (!core.rowDirty[r] || core.rowReflow[r]) continue;
+            for (int i = core.rowStart[r]; i < core.rowStart[r + 1]; i++) {
+                if (core.visible[i] && isNestedCrop(comps[i]) && countComponents((Container) comps[i], threshold) >= threshold
+                        && ++bigSubtrees >= 2) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the components inside the provided container, stops counting at the provided limit.
+     */
+    private static int countComponents(Container container, int limit) {
+        int count = container.getComponentCount();
+        for (int i = 0; i < container.getComponentCount() && count < limit; i++) {
+            Component comp = container.getComponent(i);
+            if (comp instanceof Container) count += countComponents((Container) comp, limit - count);
+        }
+        return count;
+    }
+
+    /**
+     * Prepares and measures the provided child layout, for computing it inside a {@link SubtreePass}.
+     */
+    private SubtreePass snapshot(BLayout container, int threshold) {
+        container.stats.layoutPasses++;
+        int firstRow = prepare(container);
+        SubtreePass pass = new SubtreePass(container, this, firstRow, threshold);
+        isSizeFrozen = false;
+        if (firstRow < core.rowCount) {
+            container.stats.cacheMisses++;
+            isSizeFrozen = BLayout.thrashDetector.recordPass(container, thrashCycle);
+            measureRows(container, firstRow, pass);
+        } else
+            container.stats.cacheHits++;
+        return pass;
+    }
+
+    /**
+     * Applies the computed bounds of the provided pass and all its child passes, the deepest first,
+     * just like a bottom-up validation would.
+     *
+     * @return the amount of child components whose bounds were set, in the whole subtree.
+     */
+    private int applySubtree(SubtreePass pass) {
+        int childrenLaidOut = 0;
+        for (int c = 0; c < pass.childCount; c++) {
+            SubtreePass child = pass.children[c];
+            childrenLaidOut += child.layout.applySubtree(child);
+        }
+        if (pass.firstRow < core.rowCount) childrenLaidOut += applyRows(pass.container, pass.firstRow);
+        pass.container.stats.rowsLaidOut += pass.touchedRows;
+        finishPass(pass.container);
+        return childrenLaidOut;
+    }
+
+    /**
+     * Computes the rows of a layout, after computing the content size of its child layouts
+     * that crop to their content. Child layouts with at least {@link #threshold} components get computed in parallel,
+     * the others sequentially. <br>
+     * Only the {@link LayoutCore}s of the layouts are used, which don't change while the event dispatch thread waits for this.
+     */
+    private static class SubtreePass extends RecursiveAction {
+        final BLayout container;
+        final InternalBetterLayout layout;
+        final int firstRow, threshold;
+        /**
+         * Size and preferred size of the container when it was measured.
+         */
+        final int width, height, preferredWidth, preferredHeight;
+        SubtreePass[] children = new SubtreePass[0];
+        int[] childIndexes = new int[0];
+        int childCount;
+        /**
+         * Amount of components in this subtree.
+         */
+        int size;
+        int touchedRows, contentWidth, contentHeight;
+
+        SubtreePass(BLayout container, InternalBetterLayout layout, int firstRow, int threshold) {
+            this.container = container;
+            this.layout = layout;
+            this.firstRow = firstRow;
+            this.threshold = threshold;
+            this.width = container.getWidth();
+            this.height = container.getHeight();
+            Dimension preferredSize = container.getPreferredSize();
+            this.preferredWidth = preferredSize.width;
+            this.preferredHeight = preferredSize.height;
+            this.size = layout.core.count;
+        }
+
+        void addChild(SubtreePass child, int index) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, childCount * 2 + 2);
+                childIndexes = Arrays.copyOf(childIndexes, childCount * 2 + 2);
+            }
+            children[childCount] = child;
+            childIndexes[childCount] = index;
+            childCount++;
+            size += child.size;
+        }
+
+        @Override
+        protected void compute() {
+            SubtreePass[] forked = new SubtreePass[childCount];
+            int forkedCount = 0;
+            boolean isParallel = ForkJoinPool.getCommonPoolParallelism() > 1; // Otherwise forking only adds overhead
+            for (int c = 0; c < childCount; c++) {
+                if (isParallel && children[c].size >= threshold) forked[forkedCount++] = children[c];
+                else children[c].compute();
+            }
+            if (forkedCount > 0) invokeAll(Arrays.asList(forked).subList(0, forkedCount));
+            // Merge the content sizes of the child layouts, like they would be after cropping
+            for (int c = 0; c < childCount; c++) {
+                SubtreePass child = children[c];
+                int width = child.width, height = child.height;
+                int preferredWidth = child.preferredWidth, preferredHeight = child.preferredHeight;
+                if (width < child.contentWidth || height < child.contentHeight) {
+                    width = preferredWidth = child.contentWidth;
+                    height = preferredHeight = child.contentHeight;
                 }
-                // If component 100% width or height, make it smaller to prevent padding overflow to the right or bottom
-                /* // Doesn't work like intended somehow //TODO
-                if(totalWidth >= containerSize.width && (paddingLeft != 0 || paddingRight != 0)){
-                    width = compSize.width - (paddingLeft + paddingRight);
-                    totalWidth -= (paddingLeft + paddingRight);
+                int i = childIndexes[c];
+                DebugInfo info = layout.wrappers[i].info;
+                info.preferredWidth = preferredWidth;
+                info.preferredHeight = preferredHeight;
+                layout.measure(i, width, height, preferredWidth, preferredHeight);
+            }
+            LayoutCore core = layout.core;
+            if (firstRow < core.rowCount) touchedRows = core.computeRows(firstRow);
+            contentWidth = core.getContentWidth();
+            contentHeight = core.getContentHeight();
+        }
+    }
+
+    /**
+     * Sets the computed bounds of the components in touched rows, starting at the provided row.
+     * Components of dirty rows get resized, the others only moved.
+     * Components that already have their computed bounds are skipped, thus fire no events.
+     * The old and new bounds of the changed components get added to the dirty region, see {@link #finishPass(BLayout)}.
+     * Clears the dirty and touched flags.
+     *
+     * @return the amount of child components whose bounds were set.
+     */
+    private int applyRows(BLayout container, int firstRow) {
+        LayoutCore core = this.core;
+        boolean[] visible = core.visible, rowDirty = core.rowDirty, rowTouched = core.rowTouched;
+        long[] styles = core.styles;
+        int[] bounds = core.bounds, rowStart = core.rowStart;
+        int childrenLaidOut = 0;
+        for (int r = firstRow; r < core.rowCount; r++) {
+            if (!rowTouched[r]) continue;
+            for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+                if (!visible[i]) continue;
+                int j = i * 4;
+                if (rowDirty[r]) {
+                    DebugInfo info = wrappers[i].info;
+                    info.paddingLeft = Style.padding(styles[i], Style.PADDING_LEFT);
+                    info.paddingRight = Style.padding(styles[i], Style.PADDING_RIGHT);
+                    info.paddingTop = Style.padding(styles[i], Style.PADDING_TOP);
+                    info.paddingBottom = Style.padding(styles[i], Style.PADDING_BOTTOM);
+                    info.width = bounds[j + 2];
+                    info.height = bounds[j + 3];
+                    info.totalWidth = info.width + info.paddingLeft + info.paddingRight;
+                    info.totalHeight = core.rowHeight[r]; // The total height of all components in the row is the tallest height, or the sum of its lines
                 }
-                if(totalHeight >= containerSize.height && (paddingTop != 0 || paddingBottom != 0)) {
-                    height = compSize.height - (paddingTop + paddingBottom);
-                    totalHeight -= (paddingTop + paddingBottom);
+                Component comp = comps[i];
+                int x = comp.getX(), y = comp.getY(), width = comp.getWidth(), height = comp.getHeight();
+                int newWidth = rowDirty[r] ? bounds[j + 2] : width, newHeight = rowDirty[r] ? bounds[j + 3] : height;
+                if (x == bounds[j] && y == bounds[j + 1] && width == newWidth && height == newHeight) {
+                    container.stats.boundsSkipped++;
+                    continue;
                 }
-                 */
-                compWrapper.info.width = width;
-                compWrapper.info.height = height;
-                compWrapper.info.totalWidth = totalWidth;
-                compWrapper.info.totalHeight = totalHeight;
-                compWrapper.info.paddingLeft = paddingLeft;
-                compWrapper.info.paddingRight = paddingRight;
-                compWrapper.info.paddingTop = paddingTop;
-                compWrapper.info.paddingBottom = paddingBottom;
+                childrenLaidOut++;
+                addDirtyRegion(x, y, width, height);
+                addDirtyRegion(bounds[j], bounds[j + 1], newWidth, newHeight);
+                if (rowDirty[r])
+                    comp.setBounds(bounds[j], bounds[j + 1], newWidth, newHeight);
+                else
+                    comp.setLocation(bounds[j], bounds[j + 1]);
             }
+            rowDirty[r] = false;
+            core.rowReflow[r] = false;
+            rowTouched[r] = false;
+        }
+        return childrenLaidOut;
+    }
+
+    private void addDirtyRegion(int x, int y, int width, int height) {
+        dirtyLeft = Math.min(dirtyLeft, x);
+        dirtyTop = Math.min(dirtyTop, y);
+        dirtyRight = Math.max(dirtyRight, x + width);
+        dirtyBottom = Math.max(dirtyBottom, y + height);
+    }
 
-            // DETERMINE TOTAL HEIGHT OF TALLEST COMPONENT IN ROW
-            int rowHeight = 0;
-            for (StyledComponent styledComponent : row) {
-                if (styledComponent.compWrapper.info.totalHeight > rowHeight)
-                    rowHeight = styledComponent.compWrapper.info.totalHeight;
+    /**
+     * Repaints only the dirty region of the container, if any, instead of the whole container.
+     * If there is none, but a repaint was requested, repaints the whole container.
+     */
+    private void repaintDirtyRegion(BLayout container) {
+        if (dirtyRight <= dirtyLeft || dirtyBottom <= dirtyTop) {
+            if (isRepaintRequested) {
+                container.stats.repaintedArea += (long) container.getWidth() * container.getHeight();
+                container.repaint();
             }
-            // Set the total height of all components in the row, to the tallest height
-            for (StyledComponent styledComponent : row) {
-                styledComponent.compWrapper.info.totalHeight = rowHeight;
+            isRepaintRequested = false;
+            return;
+        }
+        isRepaintRequested = false;
+        int width = dirtyRight - dirtyLeft, height = dirtyBottom - dirtyTop;
+        container.stats.repaintedArea += (long) width * height;
+        container.repaint(dirtyLeft, dirtyTop, width, height);
+        dirtyLeft = dirtyTop = Integer.MAX_VALUE;
+        dirtyRight = dirtyBottom = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Computes the geometry of the already measured rows on {@link BLayout#asyncExecutor},
+     * using a copy of the {@link #core}, and applies the result on the event dispatch thread,
+     * if no newer pass was started in the meantime.
+     */
+    private void layoutAsync(BLayout container, int firstRow) {
+        AsyncPass pass = new AsyncPass();
+        pass.version = ++asyncVersion;
+        pass.dirtyMarks = dirtyMarks;
+        pass.firstRow = firstRow;
+        pass.compCount = core.count;
+        pass.core = core.copy();
+        isHitIndexStale = true; // The child components might have new indexes already
+        container.asyncExecutor.execute(() -> {
+            if (pass.version != asyncVersion) return; // Already outdated
+            pass.touchedRows = pass.core.computeRows(pass.firstRow);
+            SwingUtilities.invokeLater(() -> applyAsync(container, pass));
+        });
+    }
+
+    /**
+     * Applies the result of an asynchronous pass, unless it's outdated. <br>
+     * If rows got dirty or child components changed while it was computing, a new pass gets requested instead.
+     */
+    private void applyAsync(BLayout container, AsyncPass pass) {
+        synchronized (container.getTreeLock()) {
+            if (pass.version != asyncVersion) { // A newer pass is computing
+                container.stats.asyncDropped++;
+                return;
             }
-            // fill()
-
-            // Determine position
-
-            // DRAW COMPONENTS IN ROW
-            for (StyledComponent styledComponent : row) {
-                // Set the component's size and position.
-                styledComponent.component.setBounds(
-                        x + styledComponent.compWrapper.info.paddingLeft, y + styledComponent.compWrapper.info.paddingTop,
-                        styledComponent.compWrapper.info.width, styledComponent.compWrapper.info.height);
-                //System.err.println("draw("+(styledComponent.styles.info.isHorizontal ? "H":"V")+"): "+styledComponent.component.getClass().getSimpleName() + "/" + Integer.toHexString(styledComponent.component.hashCode()) + " "+
-                //        x + styledComponent.styles.info.paddingLeft+ "x " + styledComponent.styles.info.width + "width "+ y + styledComponent.styles.info.paddingTop + "y " + styledComponent.styles.info.height + "height ");
-                x += styledComponent.compWrapper.info.totalWidth; // For the next components start position.
+            boolean isChanged = pass.dirtyMarks != dirtyMarks || core.firstStructuralChange != Integer.MAX_VALUE
+                    || pass.compCount != core.count || container.getComponentCount() != core.count;
+            for (int i = 0; !isChanged && i < core.count; i++) {
+                isChanged = container.getComponent(i) != comps[i];
+            }
+            if (isChanged) {
+                container.stats.asyncDropped++;
+                container.revalidate();
+                return;
+            }
+            core.copyResults(pass.core);
+            isHitIndexStale = false;
+            int childrenLaidOut = applyRows(container, pass.firstRow);
+            if (LayoutMetrics.isEnabled()) LayoutMetrics.recordChildrenLaidOut(container, childrenLaidOut);
+            container.stats.rowsLaidOut += pass.touchedRows;
+            container.stats.asyncApplied++;
+            finishPass(container);
+            // Resized child components are invalid now, validate them before the container,
+            // so that its next pass is a cache hit, since the bounds match
+            for (int i = 0; i < core.count; i++) {
+                if (core.visible[i] && !comps[i].isValid()) comps[i].validate();
             }
-            // Next row, aka new line
-            x = startX;
-            y += rowHeight; // Move comp to the next line
         }
+        container.validate(); // Applying repainted the changed regions already
+    }
+
+    /**
+     * Inputs and results of an asynchronous pass.
+     */
+    private static class AsyncPass {
+        int version, dirtyMarks;
+        int firstRow, compCount;
+        LayoutCore core;
+        int touchedRows;
     }
 
     /**
@@ -233,74 +845,28 @@ class InternalBetterLayout implements LayoutManager {
 //        comp.getMinimumSize().height = height;
     }
 
-    /**
-     * Goes through the provided components array and searches for vertical
-     * components. Those components can be thought of \n (next line) characters.
-     * When a vertical component is found, all components until the start or
-     * last vertical component get put into a new array. That's our row.
-     * <p>
-     * This method returns a list of those rows. Besides, that is also does: <br>
-     * - Only visible components are added to the row. <br>
-     * - Styles are mapped to components, aka the {@link StyledComponent} obj is created. <br>
-     * - {@link CompWrapper#info} is initialized, and the value for {@link DebugInfo#isHorizontal} set. <br>
-     *
-     * @param _components   not null.
-     * @param mapCompStyles not null, and expected to have one {@link CompWrapper} object, for each {@link Component} object
-     *                      in the array.
-     */
-    private java.util.List<StyledComponent[]> toRows(Map<Component, CompWrapper> mapCompStyles, Component... _components) {
-        // Remove not visible components first
-        List<StyledComponent> temp = new ArrayList<>(_components.length);
-        for (Component comp : _components) {
-            if (comp.isVisible()) {
-                StyledComponent styledComponent = new StyledComponent(comp);
-                styledComponent.compWrapper = mapCompStyles.get(comp);
-                styledComponent.compWrapper.info = new DebugInfo();
-                styledComponent.compWrapper.info.isHorizontal = isHorizontal(styledComponent.compWrapper);
-                temp.add(styledComponent);
-            }
-        }
-        StyledComponent[] components = temp.toArray(new StyledComponent[0]);
-
-        // Do actual job:
-        java.util.List<StyledComponent[]> rows = new ArrayList<>();
-        int lastVerticalCompIndex = 0;
-        for (int i = 0; i < components.length; i++) {
-            StyledComponent comp = components[i];
-            if (!comp.compWrapper.info.isHorizontal) {
-                rows.add(Arrays.copyOfRange(components, lastVerticalCompIndex, i));  // i exclusive
-                lastVerticalCompIndex = i;
-            }
-        }
-        if (components.length > 0 && !components[components.length - 1].compWrapper.info.isHorizontal)// Last vertical component
-            rows.add(new StyledComponent[]{components[components.length - 1]});
-        if (rows.isEmpty()) { // Only horizontal components
-            rows.add(components);
-        }
-        return rows;
-    }
-
     private boolean isVertical(CompWrapper compWrapper) {
         return !isHorizontal(compWrapper);
     }
 
     private boolean isHorizontal(CompWrapper compWrapper) {
-        String alignment = compWrapper.map.get(Style.vertical.key);
-        if (alignment == null) alignment = Style.horizontal.value;
-        return Objects.equals(alignment, Style.horizontal.value);
+        return Style.isHorizontal(compWrapper.getStyles());
     }
 
 
-    private void drawDebugLines(BLayout container) {
-        Graphics2D g = (Graphics2D) container.getGraphics();
-        if (g == null) return;
-        for (Component comp : container.getComponents()) {
-            CompWrapper compWrapper = container.compsAndStyles.get(comp);
-            Objects.requireNonNull(compWrapper);
-            int x = comp.getX() - compWrapper.info.paddingLeft;
-            int y = comp.getY() - compWrapper.info.paddingTop;
-            int width = comp.getWidth() + compWrapper.info.paddingLeft + compWrapper.info.paddingRight;
-            int height = comp.getHeight() + compWrapper.info.paddingTop + compWrapper.info.paddingBottom;
+    /**
+     * Draws the corners and padding of each visible child component,
+     * using the bounds and {@link DebugInfo} of the last pass.
+     */
+    void paintDebugLines(Graphics g) {
+        for (int i = 0; i < core.count; i++) {
+            if (!core.visible[i] || comps[i] == null) continue; // Removed since the last pass
+            Component comp = comps[i];
+            DebugInfo info = wrappers[i].info;
+            int x = comp.getX() - info.paddingLeft;
+            int y = comp.getY() - info.paddingTop;
+            int width = comp.getWidth() + info.paddingLeft + info.paddingRight;
+            int height = comp.getHeight() + info.paddingTop + info.paddingBottom;
             g.setColor(Color.red);
             g.drawRect(x, y, width, height); // Full width/height with padding included
             g.setColor(Color.blue); // Actual component width/height
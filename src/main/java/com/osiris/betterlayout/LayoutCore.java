@@ -0,0 +1,513 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import java.util.Arrays;
+
+/**
+ * The row algorithm of {@link BLayout}, on a primitive node model without any AWT classes.
+ * {@link InternalBetterLayout} is a thin adapter around it, that measures the child components
+ * and applies the computed bounds to them. <p>
+ * Each node has a size, paddings, an alignment and a visibility, all stored in arrays.
+ * Vertical nodes start a new row, horizontal nodes get appended to the current row.
+ * Nodes are placed from left to right in their row, rows from top to bottom,
+ * and each row is as tall as its tallest node including paddings. <br>
+ * With a wrap width, see {@link #setWrapWidth(int)}, rows break into lines that fit into that width,
+ * and each row is as tall as its lines. The break points are found via the cumulative widths of the nodes,
+ * thus changing the wrap width only recomputes the break points of rows that wrap, without new sizes. <p>
+ * Just like the adapter, it's incremental: only rows with changed nodes get recomputed,
+ * rows below only get moved if a row above changed its height, and a structural change
+ * (count, alignment or visibility) rebuilds the rows from the row before it on.
+ * Computing layouts allocates nothing, besides growing the arrays. <p>
+ * Not thread-safe, but instances don't depend on each other, thus separate instances
+ * can be computed on any thread, for example to lay out thousands of screens in tests or benchmarks.
+ */
+public class LayoutCore {
+    // NODES, BY INDEX
+    int count;
+    boolean[] visible = new boolean[0];
+    /**
+     * Packed styles of each node, see {@link Style}. Only paddings and alignment are used.
+     */
+    long[] styles = new long[0];
+    /**
+     * Width and height of each node, without padding.
+     */
+    int[] sizes = new int[0];
+    /**
+     * x, y, width and height of each node, as computed by the last pass.
+     * Invisible nodes are 0x0 big, at the position the next node would have, to keep the nodes of a row sorted for {@link #nodeAt(int, int)}.
+     */
+    int[] bounds = new int[0];
+    /**
+     * The row index of each node.
+     */
+    int[] childRow = new int[0];
+    /**
+     * Cumulative width of the visible nodes in the row of each node, from the start of the row up to and including the node,
+     * with paddings.
+     */
+    int[] advance = new int[0];
+
+    // ROWS, BY INDEX
+    /**
+     * Row r contains the nodes from rowStart[r] (inclusive) to rowStart[r + 1] (exclusive).
+     * Invisible nodes are part of a row, but get ignored.
+     */
+    int[] rowStart = new int[1];
+    int[] rowY = new int[0], rowHeight = new int[0], rowWidth = new int[0];
+    boolean[] rowDirty = new boolean[0];
+    /**
+     * Dirty rows whose node sizes did not change, only the wrap width, thus they only need new break points.
+     */
+    boolean[] rowReflow = new boolean[0];
+    /**
+     * Amount of lines of each row, 1 if it did not wrap.
+     */
+    int[] rowLines = new int[0];
+    /**
+     * Rows that were measured or moved by {@link #computeRows(int)}, but not yet applied.
+     */
+    boolean[] rowTouched = new boolean[0];
+    int rowCount;
+    int startX, startY;
+    /**
+     * Maximum width of a line, or 0 if rows don't wrap.
+     */
+    int wrapWidth;
+    /**
+     * Index of the first node whose row and all rows after need to be rebuilt,
+     * or {@link Integer#MAX_VALUE} if none.
+     */
+    int firstStructuralChange = 0;
+
+    /**
+     * Sets the amount of nodes. New nodes are visible, horizontal, without padding and 0x0 big.
+     */
+    public void setNodeCount(int count) {
+        ensureCapacity(count);
+        for (int i = this.count; i < count; i++) {
+            visible[i] = true;
+            styles[i] = 0;
+            sizes[i * 2] = 0;
+            sizes[i * 2 + 1] = 0;
+        }
+        if (count != this.count) firstStructuralChange = Math.min(firstStructuralChange, Math.min(count, this.count));
+        this.count = count;
+    }
+
+    public int getNodeCount() {
+        return count;
+    }
+
+    public void setSize(int node, int width, int height) {
+        sizes[node * 2] = width;
+        sizes[node * 2 + 1] = height;
+        markDirty(node);
+    }
+
+    public void setPadding(int node, int left, int right, int top, int bottom) {
+        long s = styles[node];
+        s = Style.withPadding(s, Style.PADDING_LEFT, (byte) left);
+        s = Style.withPadding(s, Style.PADDING_RIGHT, (byte) right);
+        s = Style.withPadding(s, Style.PADDING_TOP, (byte) top);
+        styles[node] = Style.withPadding(s, Style.PADDING_BOTTOM, (byte) bottom);
+        markDirty(node);
+    }
+
+    /**
+     * Vertical nodes start a new row.
+     */
+    public void setVertical(int node, boolean isVertical) {
+        styles[node] = (styles[node] & ~Style.ALIGN_MASK) | (isVertical ? Style.ALIGN_VERTICAL : Style.ALIGN_HORIZONTAL);
+        firstStructuralChange = Math.min(firstStructuralChange, node);
+    }
+
+    public void setVisible(int node, boolean isVisible) {
+        visible[node] = isVisible;
+        firstStructuralChange = Math.min(firstStructuralChange, node);
+    }
+
+    /**
+     * Sets the position of the first row, like the insets of a container.
+     */
+    public void setStart(int x, int y) {
+        if (x == startX && y == startY) return;
+        startX = x;
+        startY = y;
+        firstStructuralChange = 0;
+    }
+
+    /**
+     * Sets the maximum width of a line, or 0 to disable wrapping.
+     * Rows with more nodes than fit into one line break into multiple lines. A node wider than the wrap width gets its own line. <br>
+     * Rows that did not wrap and still fit stay as they are, the others get new break points in the next pass.
+     */
+    public void setWrapWidth(int width) {
+        if (width == wrapWidth) return;
+        wrapWidth = width;
+        for (int r = 0; r < rowCount; r++) {
+            if (rowDirty[r] || (rowLines[r] <= 1 && (width <= 0 || rowWidth[r] <= width))) continue;
+            rowDirty[r] = true;
+            rowReflow[r] = true;
+        }
+    }
+
+    public int getWrapWidth() {
+        return wrapWidth;
+    }
+
+    /**
+     * Marks everything dirty, so that the next pass recomputes all rows.
+     */
+    public void markAllDirty() {
+        firstStructuralChange = 0;
+    }
+
+    /**
+     * Marks the row of the provided node dirty, if it was laid out already.
+     */
+    void markDirty(int node) {
+        if (node < rowStart[rowCount]) {
+            rowDirty[childRow[node]] = true;
+            rowReflow[childRow[node]] = false;
+        }
+    }
+
+    /**
+     * Computes the bounds of all changed nodes.
+     *
+     * @return the amount of rows that were recomputed or moved.
+     */
+    public int layout() {
+        int firstRow;
+        if (firstStructuralChange != Integer.MAX_VALUE) {
+            firstRow = rowBefore(firstStructuralChange);
+            toRows(firstRow);
+            firstStructuralChange = Integer.MAX_VALUE;
+            firstRow = Math.min(firstRow, firstDirtyRow()); // Rows above the change may be dirty too
+        } else
+            firstRow = firstDirtyRow();
+        if (firstRow >= rowCount) return 0;
+        int touchedRows = computeRows(firstRow);
+        for (int r = firstRow; r < rowCount; r++) {
+            rowDirty[r] = false;
+            rowReflow[r] = false;
+            rowTouched[r] = false;
+        }
+        return touchedRows;
+    }
+
+    public int getX(int node) {
+        return bounds[node * 4];
+    }
+
+    public int getY(int node) {
+        return bounds[node * 4 + 1];
+    }
+
+    public int getWidth(int node) {
+        return bounds[node * 4 + 2];
+    }
+
+    public int getHeight(int node) {
+        return bounds[node * 4 + 3];
+    }
+
+    public int getRow(int node) {
+        return childRow[node];
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the amount of lines the provided row wrapped into, 1 if it did not wrap.
+     */
+    public int getLineCount(int row) {
+        return rowLines[row];
+    }
+
+    /**
+     * Returns the visible node at the provided position, or -1 if there is none, in O(log n). <br>
+     * Searches the row via binary search over the row y-offsets, then the line and node inside the row
+     * via binary search over the node positions, which are sorted by line and x.
+     * Uses the bounds of the last pass, padding does not belong to a node.
+     */
+    public int nodeAt(int x, int y) {
+        if (rowCount == 0 || y < rowY[0]) return -1;
+        // LAST ROW STARTING AT OR ABOVE Y
+        int low = 0, high = rowCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (rowY[mid] <= y) low = mid;
+            else high = mid - 1;
+        }
+        int r = low;
+        if (y >= rowY[r] + rowHeight[r]) return -1;
+        // LAST NODE IN THE ROW WHOSE LINE STARTS AT OR ABOVE Y, WHICH IS IN THE LINE OF Y
+        low = rowStart[r];
+        high = rowStart[r + 1] - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineY(mid) <= y) low = mid;
+            else high = mid - 1;
+        }
+        int lineY = lineY(low);
+        // LAST NODE IN THAT LINE STARTING AT OR LEFT OF X, NODES OF LINES ABOVE ALWAYS COME BEFORE
+        high = low;
+        low = rowStart[r];
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineY(mid) < lineY || bounds[mid * 4] - Style.padding(styles[mid], Style.PADDING_LEFT) <= x) low = mid;
+            else high = mid - 1;
+        }
+        int j = low * 4;
+        if (!visible[low] || x < bounds[j] || x >= bounds[j] + bounds[j + 2]
+                || y < bounds[j + 1] || y >= bounds[j + 1] + bounds[j + 3]) return -1;
+        return low;
+    }
+
+    /**
+     * Returns the y of the line the provided node is in.
+     */
+    private int lineY(int node) {
+        return bounds[node * 4 + 1] - Style.padding(styles[node], Style.PADDING_TOP);
+    }
+
+    /**
+     * Returns the width of the widest row, including paddings.
+     */
+    public int getContentWidth() {
+        int width = 0;
+        for (int r = 0; r < rowCount; r++) {
+            if (rowWidth[r] > width) width = rowWidth[r];
+        }
+        return width;
+    }
+
+    /**
+     * Returns the sum of all row heights, thus of all lines.
+     */
+    public int getContentHeight() {
+        int height = 0;
+        for (int r = 0; r < rowCount; r++) {
+            height += rowHeight[r]; // == the tallest node
+        }
+        return height;
+    }
+
+    void ensureCapacity(int count) {
+        if (visible.length >= count) return;
+        int capacity = Math.max(count, visible.length + (visible.length >> 1));
+        visible = Arrays.copyOf(visible, capacity);
+        styles = Arrays.copyOf(styles, capacity);
+        sizes = Arrays.copyOf(sizes, capacity * 2);
+        bounds = Arrays.copyOf(bounds, capacity * 4);
+        childRow = Arrays.copyOf(childRow, capacity);
+        advance = Arrays.copyOf(advance, capacity);
+    }
+
+    private void ensureRowCapacity(int rows) {
+        if (rowY.length >= rows) return;
+        int capacity = Math.max(rows, rowY.length + (rowY.length >> 1));
+        rowStart = Arrays.copyOf(rowStart, capacity + 1);
+        rowY = Arrays.copyOf(rowY, capacity);
+        rowHeight = Arrays.copyOf(rowHeight, capacity);
+        rowWidth = Arrays.copyOf(rowWidth, capacity);
+        rowDirty = Arrays.copyOf(rowDirty, capacity);
+        rowReflow = Arrays.copyOf(rowReflow, capacity);
+        rowLines = Arrays.copyOf(rowLines, capacity);
+        rowTouched = Arrays.copyOf(rowTouched, capacity);
+    }
+
+    /**
+     * Returns the row that needs to be rebuilt for a structural change at the provided node.
+     * That's the row of the node before, since the changed node might join it.
+     */
+    int rowBefore(int node) {
+        int laidOut = rowStart[rowCount]; // Amount of nodes at the last rebuild
+        return node == 0 || laidOut == 0 ? 0 : childRow[Math.min(node, laidOut) - 1];
+    }
+
+    /**
+     * Returns the first dirty row, or {@link #rowCount} if none.
+     */
+    int firstDirtyRow() {
+        int r = 0;
+        while (r < rowCount && !rowDirty[r]) r++;
+        return r;
+    }
+
+    /**
+     * Goes through the nodes, starting at the provided row, and searches for vertical
+     * nodes. Those nodes can be thought of \n (next line) characters.
+     * When a visible vertical node is found, a new row is started at its index.
+     * All rows from the provided row on are marked dirty. <p>
+     * Rows before the provided row stay as they are, thus the nodes
+     * before the start of the provided row must not have changed.
+     */
+    void toRows(int fromRow) {
+        int r = fromRow;
+        int start = fromRow == 0 ? 0 : rowStart[fromRow];
+        ensureRowCapacity(r + 1);
+        rowStart[r] = start;
+        boolean hasVisible = false;
+        for (int i = start; i < count; i++) {
+            if (visible[i]) {
+                if (!Style.isHorizontal(styles[i]) && hasVisible) { // Start next row
+                    rowDirty[r] = true;
+                    rowReflow[r] = false;
+                    r++;
+                    ensureRowCapacity(r + 1);
+                    rowStart[r] = i;
+                }
+                hasVisible = true;
+            }
+            childRow[i] = r;
+        }
+        rowDirty[r] = true;
+        rowReflow[r] = false;
+        rowCount = count == start ? r : r + 1;
+        rowStart[rowCount] = count;
+    }
+
+    /**
+     * Computes the bounds of the nodes in dirty rows, starting at the provided row. <br>
+     * Rows that are not dirty only get moved, if a row above them changed its height.
+     * Stops at the first clean row that did not move, after the last dirty row.
+     * Each recomputed or moved row gets marked in {@link #rowTouched}, the dirty flags stay.
+     *
+     * @return the amount of rows that were recomputed or moved.
+     */
+    int computeRows(int firstRow) {
+        int lastDirtyRow = rowCount - 1;
+        while (lastDirtyRow >= firstRow && !rowDirty[lastDirtyRow]) lastDirtyRow--;
+        int touchedRows = 0;
+        for (int r = firstRow; r < rowCount; r++) {
+            int y = r == 0 ? startY : rowY[r - 1] + rowHeight[r - 1];
+            int end = rowStart[r + 1];
+            if (rowDirty[r]) {
+                int start = rowStart[r];
+                if (!rowReflow[r]) { // Sizes might have changed, update the cumulative widths
+                    int x = 0;
+                    for (int i = start; i < end; i++) {
+                        if (visible[i]) x += Style.padding(styles[i], Style.PADDING_LEFT) + sizes[i * 2]
+                                + Style.padding(styles[i], Style.PADDING_RIGHT); // Unset paddings are 0
+                        advance[i] = x;
+                    }
+                }
+                int height = 0, width = 0, lines = 0;
+                for (int lineStart = start; lineStart < end; lines++) {
+                    int lineX = lineStart == start ? 0 : advance[lineStart - 1];
+                    int lineEnd = wrapWidth > 0 ? lineEnd(lineStart, end, lineX) : end;
+                    // PLACE NODES IN LINE, WHICH IS AS TALL AS ITS TALLEST NODE
+                    int tallestHeight = 0;
+                    for (int i = lineStart; i < lineEnd; i++) {
+                        int j = i * 4;
+                        bounds[j + 1] = y + height + Style.padding(styles[i], Style.PADDING_TOP);
+                        if (!visible[i]) {
+                            bounds[j] = startX + advance[i] - lineX + Style.padding(styles[i], Style.PADDING_LEFT);
+                            bounds[j + 2] = 0;
+                            bounds[j + 3] = 0;
+                            continue;
+                        }
+                        bounds[j] = startX + advance[i] - lineX - sizes[i * 2] - Style.padding(styles[i], Style.PADDING_RIGHT);
+                        bounds[j + 2] = sizes[i * 2];
+                        bounds[j + 3] = sizes[i * 2 + 1];
+                        int totalHeight = sizes[i * 2 + 1] + Style.padding(styles[i], Style.PADDING_TOP)
+                                + Style.padding(styles[i], Style.PADDING_BOTTOM);
+                        if (totalHeight > tallestHeight) tallestHeight = totalHeight;
+                    }
+                    width = Math.max(width, advance[lineEnd - 1] - lineX);
+                    height += tallestHeight;
+                    lineStart = lineEnd;
+                }
+                rowY[r] = y;
+                rowHeight[r] = height;
+                rowWidth[r] = width;
+                rowLines[r] = Math.max(1, lines);
+            } else if (rowY[r] != y) {
+                int dy = y - rowY[r];
+                for (int i = rowStart[r]; i < end; i++) {
+                    bounds[i * 4 + 1] += dy;
+                }
+                rowY[r] = y;
+            } else if (r > lastDirtyRow) {
+                break; // Nothing changed below
+            } else
+                continue;
+            rowTouched[r] = true;
+            touchedRows++;
+        }
+        return touchedRows;
+    }
+
+    /**
+     * Returns the end (exclusive) of the line starting at the provided node, at the provided x in its row,
+     * which is after the last node that still fits into the {@link #wrapWidth}, found via binary search over the cumulative widths.
+     * A line contains at least one visible node.
+     */
+    private int lineEnd(int lineStart, int rowEnd, int lineX) {
+        int low = lineStart;
+        while (low < rowEnd - 1 && !visible[low]) low++;
+        low++; // The first visible node, even if too wide
+        int high = rowEnd;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (advance[mid - 1] - lineX <= wrapWidth) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Returns a copy with arrays trimmed to the current nodes and rows,
+     * that can be computed on another thread.
+     */
+    LayoutCore copy() {
+        LayoutCore copy = new LayoutCore();
+        copy.count = count;
+        copy.visible = Arrays.copyOf(visible, count);
+        copy.styles = Arrays.copyOf(styles, count);
+        copy.sizes = Arrays.copyOf(sizes, count * 2);
+        copy.bounds = Arrays.copyOf(bounds, count * 4);
+        copy.childRow = Arrays.copyOf(childRow, count);
+        copy.advance = Arrays.copyOf(advance, count);
+        copy.rowCount = rowCount;
+        copy.rowStart = Arrays.copyOf(rowStart, rowCount + 1);
+        copy.rowY = Arrays.copyOf(rowY, rowCount);
+        copy.rowHeight = Arrays.copyOf(rowHeight, rowCount);
+        copy.rowWidth = Arrays.copyOf(rowWidth, rowCount);
+        copy.rowDirty = Arrays.copyOf(rowDirty, rowCount);
+        copy.rowReflow = Arrays.copyOf(rowReflow, rowCount);
+        copy.rowLines = Arrays.copyOf(rowLines, rowCount);
+        copy.rowTouched = Arrays.copyOf(rowTouched, rowCount);
+        copy.startX = startX;
+        copy.startY = startY;
+        copy.wrapWidth = wrapWidth;
+        copy.firstStructuralChange = firstStructuralChange;
+        return copy;
+    }
+
+    /**
+     * Takes over the computed rows and bounds of the provided copy, see {@link #copy()}.
+     * The nodes and rows structure must not have changed since copying.
+     */
+    void copyResults(LayoutCore copy) {
+        System.arraycopy(copy.rowY, 0, rowY, 0, copy.rowCount);
+        System.arraycopy(copy.rowHeight, 0, rowHeight, 0, copy.rowCount);
+        System.arraycopy(copy.rowWidth, 0, rowWidth, 0, copy.rowCount);
+        System.arraycopy(copy.rowLines, 0, rowLines, 0, copy.rowCount);
+        System.arraycopy(copy.rowTouched, 0, rowTouched, 0, copy.rowCount);
+        System.arraycopy(copy.bounds, 0, bounds, 0, copy.count * 4);
+        System.arraycopy(copy.advance, 0, advance, 0, copy.count);
+    }
+}
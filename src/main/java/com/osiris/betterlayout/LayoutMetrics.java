@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Optional layout instrumentation, exposed via JMX. Disabled by default, see {@link #enable()}. <p>
+ * Counts layout passes, their durations and the child components laid out,
+ * as well as {@link com.osiris.betterlayout.utils.UI#revalidateAllUp(Component, boolean)} calls
+ * and {@link com.osiris.betterlayout.utils.UI#refresh(Component)} requests.
+ * Counters exist in total and separately for each container that has a name, see {@link Component#setName(String)}. <p>
+ * When disabled, recording costs a single volatile read.
+ */
+public class LayoutMetrics implements LayoutMetricsMBean {
+    public static final String OBJECT_NAME = "com.osiris.betterlayout:type=LayoutMetrics";
+    /**
+     * Upper bounds of the duration histogram buckets in nanoseconds, the last bucket has no upper bound.
+     */
+    private static final long[] BUCKET_BOUNDS = {100_000, 1_000_000, 4_000_000, 16_000_000, 64_000_000};
+    private static final String[] BUCKET_NAMES = {"<0.1ms", "<1ms", "<4ms", "<16ms", "<64ms", ">=64ms"};
+    private static volatile boolean isEnabled;
+    private static final Counters total = new Counters();
+    private static final Map<String, Counters> containers = new ConcurrentHashMap<>();
+
+    /**
+     * Starts recording and registers the MBean under {@link #OBJECT_NAME}
+     * at the platform MBean server, if not registered yet.
+     *
+     * @throws IllegalStateException if the registration failed.
+     */
+    public static synchronized void enable() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) server.registerMBean(new LayoutMetrics(), name);
+        } catch (InstanceAlreadyExistsException ignored) {
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register the layout metrics MBean.", e);
+        }
+        isEnabled = true;
+    }
+
+    /**
+     * Stops recording and unregisters the MBean. The counters are kept.
+     */
+    public static synchronized void disable() {
+        isEnabled = false;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (InstanceNotFoundException ignored) {
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to unregister the layout metrics MBean.", e);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return isEnabled;
+    }
+
+    private static Counters countersOf(Component comp) {
+        String name = comp.getName();
+        return name == null ? null : containers.computeIfAbsent(name, n -> new Counters());
+    }
+
+    /**
+     * Records a layout pass of the provided container.
+     */
+    static void recordLayoutPass(Component container, long nanos, int childrenLaidOut) {
+        total.recordLayoutPass(nanos, childrenLaidOut);
+        Counters counters = countersOf(container);
+        if (counters != null) counters.recordLayoutPass(nanos, childrenLaidOut);
+    }
+
+    /**
+     * Records child components laid out outside a layout pass, like by {@link BLayout#isAsyncLayout}.
+     */
+    static void recordChildrenLaidOut(Component container, int childrenLaidOut) {
+        total.childrenLaidOut.addAndGet(childrenLaidOut);
+        Counters counters = countersOf(container);
+        if (counters != null) counters.childrenLaidOut.addAndGet(childrenLaidOut);
+    }
+
+    public static void recordRevalidateAllUp(Component comp) {
+        if (!isEnabled) return;
+        total.revalidateAllUpCalls.incrementAndGet();
+        Counters counters = countersOf(comp);
+        if (counters != null) counters.revalidateAllUpCalls.incrementAndGet();
+    }
+
+    public static void recordRefreshRequest(Component comp) {
+        if (!isEnabled) return;
+        total.refreshRequests.incrementAndGet();
+        Counters counters = countersOf(comp);
+        if (counters != null) counters.refreshRequests.incrementAndGet();
+    }
+
+    @Override
+    public long getLayoutPasses() {
+        return total.layoutPasses.get();
+    }
+
+    @Override
+    public long getTotalLayoutNanos() {
+        return total.totalNanos.get();
+    }
+
+    @Override
+    public long getMaxLayoutNanos() {
+        return total.maxNanos.get();
+    }
+
+    @Override
+    public double getAverageLayoutMillis() {
+        return total.averageMillis();
+    }
+
+    @Override
+    public long[] getDurationHistogram() {
+        return total.histogram();
+    }
+
+    @Override
+    public String[] getDurationHistogramBuckets() {
+        return BUCKET_NAMES.clone();
+    }
+
+    @Override
+    public long getChildrenLaidOut() {
+        return total.childrenLaidOut.get();
+    }
+
+    @Override
+    public long getRevalidateAllUpCalls() {
+        return total.revalidateAllUpCalls.get();
+    }
+
+    @Override
+    public long getRefreshRequests() {
+        return total.refreshRequests.get();
+    }
+
+    @Override
+    public int getMutationQueueDepth() {
+        return BLayout.mutationQueue.getDepth();
+    }
+
+    @Override
+    public long getMutationQueueMaxDrainLatencyNanos() {
+        return BLayout.mutationQueue.getMaxDrainLatencyNanos();
+    }
+
+    @Override
+    public String[] getContainerNames() {
+        return containers.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getContainerSummaries() {
+        return containers.entrySet().stream().map(e -> e.getKey() + ": " + e.getValue()).sorted().toArray(String[]::new);
+    }
+
+    @Override
+    public String getContainerSummary(String name) {
+        Counters counters = containers.get(name);
+        return counters == null ? null : counters.toString();
+    }
+
+    @Override
+    public void reset() {
+        total.reset();
+        containers.clear();
+    }
+
+    @Override
+    public String toString() {
+        return total.toString();
+    }
+
+    private static class Counters {
+        final AtomicLong layoutPasses = new AtomicLong(), totalNanos = new AtomicLong(), maxNanos = new AtomicLong();
+        final AtomicLong childrenLaidOut = new AtomicLong(), revalidateAllUpCalls = new AtomicLong(), refreshRequests = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKET_NAMES.length);
+
+        void recordLayoutPass(long nanos, int children) {
+            layoutPasses.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            childrenLaidOut.addAndGet(children);
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS.length && nanos >= BUCKET_BOUNDS[bucket]) bucket++;
+            histogram.incrementAndGet(bucket);
+        }
+
+        double averageMillis() {
+            long passes = layoutPasses.get();
+            return passes == 0 ? 0 : totalNanos.get() / 1_000_000.0 / passes;
+        }
+
+        long[] histogram() {
+            long[] result = new long[histogram.length()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = histogram.get(i);
+            }
+            return result;
+        }
+
+        void reset() {
+            layoutPasses.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            childrenLaidOut.set(0);
+            revalidateAllUpCalls.set(0);
+            refreshRequests.set(0);
+            for (int i = 0; i < histogram.length(); i++) {
+                histogram.set(i, 0);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("passes=").append(layoutPasses.get())
+                    .append(" total=").append(totalNanos.get() / 1_000_000).append("ms")
+                    .append(" avg=").append(String.format("%.3f", averageMillis())).append("ms")
+                    .append(" max=").append(String.format("%.3f", maxNanos.get() / 1_000_000.0)).append("ms")
+                    .append(" children=").append(childrenLaidOut.get())
+                    .append(" revalidate-all-up=").append(revalidateAllUpCalls.get())
+                    .append(" refresh=").append(refreshRequests.get())
+                    .append(" histogram=");
+            for (int i = 0; i < BUCKET_NAMES.length; i++) {
+                sb.append(i == 0 ? "" : ",").append(BUCKET_NAMES[i]).append(':').append(histogram.get(i));
+            }
+            return sb.toString();
+        }
+    }
+}
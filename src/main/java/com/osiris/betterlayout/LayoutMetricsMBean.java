@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+/**
+ * JMX interface of {@link LayoutMetrics}, visible in JConsole/VisualVM
+ * under {@link LayoutMetrics#OBJECT_NAME}.
+ */
+public interface LayoutMetricsMBean {
+
+    long getLayoutPasses();
+
+    long getTotalLayoutNanos();
+
+    long getMaxLayoutNanos();
+
+    double getAverageLayoutMillis();
+
+    /**
+     * Amount of layout passes per duration bucket, see {@link #getDurationHistogramBuckets()}.
+     */
+    long[] getDurationHistogram();
+
+    String[] getDurationHistogramBuckets();
+
+    long getChildrenLaidOut();
+
+    long getRevalidateAllUpCalls();
+
+    long getRefreshRequests();
+
+    /**
+     * Changes queued via {@link BLayout#accessLater(Runnable)} that were not drained yet, see {@link MutationQueue#getDepth()}.
+     */
+    int getMutationQueueDepth();
+
+    long getMutationQueueMaxDrainLatencyNanos();
+
+    /**
+     * Names of the containers with separate counters, see {@link java.awt.Component#setName(String)}.
+     */
+    String[] getContainerNames();
+
+    /**
+     * One line with all counters for each named container.
+     */
+    String[] getContainerSummaries();
+
+    String getContainerSummary(String name);
+
+    void reset();
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Optional on-disk cache of computed layouts, to speed up the startup of big {@link BLayout} trees,
+ * whose geometry is the same from run to run. <p>
+ * Usage: build the tree, call {@link #restore(BLayout)} on its root and show the window.
+ * On a hit, the child components of all {@link BLayout}s in the tree get the cached sizes,
+ * without being measured, thus the first frame uses the cached geometry right away.
+ * Once the tree is shown, a real layout runs lazily to verify it (see {@link #verify(BLayout)})
+ * and the cache gets updated if the geometry differs. On a miss the cache gets filled the same way. <p>
+ * Trees are keyed by a signature of their structure (component classes, names, texts, visibility, styles and fonts),
+ * the look and feel and the UI scale. The file is memory-mapped on load, entries are read directly from it.
+ * Since a mapped file can't be replaced on all platforms (Windows), each update gets written to a new file,
+ * named like {@link #file} with an increasing generation number appended, and older generations get deleted
+ * once possible. A missing or corrupt file is treated like an empty cache. <br>
+ * Until verified, changes to the tree that only invalidate components are not laid out.
+ * Must be used on the event dispatch thread.
+ */
+public class LayoutSnapshotCache {
+    private static final int MAGIC = 0x424C5343; // "BLSC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    /**
+     * Base path of the cache, the generations are stored next to it, like "layouts.bin.3".
+     */
+    public final Path file;
+    /**
+     * Maximum amount of cached trees, the oldest ones get removed first.
+     */
+    public int maxEntries = 64;
+    /**
+     * Receives errors while reading or writing the cache, which is optional, thus they never get thrown.
+     * Prints the stack trace by default.
+     */
+    public Consumer<IOException> onError = Throwable::printStackTrace;
+    private MappedByteBuffer mapped;
+    private long hits, misses, verified, mismatches;
+
+    public LayoutSnapshotCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Lays out the provided tree with its cached geometry, if any,
+     * and schedules its verification for when it's shown.
+     *
+     * @return true if the cached geometry was found and applied.
+     */
+    public boolean restore(BLayout root) {
+        List<BLayout> layouts = layoutsOf(root);
+        int entry = find(signatureOf(root), layouts);
+        if (entry < 0) misses++;
+        else {
+            hits++;
+            int offset = entry + 12;
+            for (BLayout ly : layouts) {
+                int count = mapped.getInt(offset);
+                ((InternalBetterLayout) ly.getLayout()).restore(ly, mapped, offset + 4);
+                offset += 4 + count * 8;
+            }
+        }
+        verifyWhenShown(root);
+        return entry >= 0;
+    }
+
+    private void verifyWhenShown(BLayout root) {
+        if (root.isShowing()) {
+            SwingUtilities.invokeLater(() -> verify(root));
+            return;
+        }
+        root.addHierarchyListener(new HierarchyListener() {
+            @Override
+            public void hierarchyChanged(HierarchyEvent e) {
+                if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && root.isShowing()) {
+                    root.removeHierarchyListener(this);
+                    SwingUtilities.invokeLater(() -> verify(root));
+                }
+            }
+        });
+    }
+
+    /**
+     * Does a full layout pass on all {@link BLayout}s in the provided tree, re-measuring all child components,
+     * and stores the resulting geometry, if it differs from the cached one.
+     *
+     * @return true if the cached geometry was correct.
+     */
+    public boolean verify(BLayout root) {
+        List<BLayout> layouts = layoutsOf(root);
+        for (BLayout ly : layouts) {
+            ly.markAllDirty();
+            ly.invalidate();
+        }
+        root.validate();
+        long signature = signatureOf(root);
+        int entry = find(signature, layouts);
+        boolean isCorrect = entry >= 0;
+        int offset = entry + 12;
+        for (int l = 0; isCorrect && l < layouts.size(); l++) {
+            BLayout ly = layouts.get(l);
+            offset += 4;
+            for (int i = 0; isCorrect && i < ly.getComponentCount(); i++, offset += 8) {
+                Component comp = ly.getComponent(i);
+                isCorrect = mapped.getInt(offset) == comp.getWidth() && mapped.getInt(offset + 4) == comp.getHeight();
+            }
+        }
+        if (isCorrect) verified++;
+        else {
+            if (entry >= 0) mismatches++;
+            try {
+                store(signature, layouts);
+            } catch (IOException e) {
+                Consumer<IOException> onError = this.onError;
+                if (onError != null) onError.accept(e);
+            }
+        }
+        root.revalidate(); // In case the size of the root changed
+        root.repaint();
+        return isCorrect;
+    }
+
+    /**
+     * Returns all {@link BLayout}s in the provided tree, the deepest first, including the root.
+     */
+    private static List<BLayout> layoutsOf(BLayout root) {
+        List<BLayout> layouts = new ArrayList<>();
+        addLayouts(root, layouts);
+        return layouts;
+    }
+
+    private static void addLayouts(Container container, List<BLayout> layouts) {
+        for (int i = 0; i < container.getComponentCount(); i++) {
+            Component comp = container.getComponent(i);
+            if (comp instanceof Container) addLayouts((Container) comp, layouts);
+        }
+        if (container instanceof BLayout) layouts.add((BLayout) container);
+    }
+
+    /**
+     * Returns a hash of everything in the provided tree that affects its geometry, as far as known,
+     * that is stable across runs.
+     */
+    static long signatureOf(BLayout root) {
+        long hash = mix(0xcbf29ce484222325L, UIManager.getLookAndFeel() == null ? 0 : UIManager.getLookAndFeel().getClass().getName().hashCode());
+        GraphicsConfiguration gc = root.getGraphicsConfiguration();
+        if (gc == null && !GraphicsEnvironment.isHeadless())
+            gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        hash = mix(hash, Double.hashCode(gc == null ? 1 : gc.getDefaultTransform().getScaleX()));
+        return signatureOf(root, hash);
+    }
+
+    private static long signatureOf(Component comp, long hash) {
+        hash = mix(hash, comp.getClass().getName().hashCode());
+        hash = mix(hash, comp.getName() == null ? 0 : comp.getName().hashCode());
+        hash = mix(hash, comp.isVisible() ? 1 : 0);
+        Font font = comp.getFont();
+        if (font != null) {
+            hash = mix(hash, font.getName().hashCode());
+            hash = mix(hash, font.getStyle());
+            hash = mix(hash, Float.floatToIntBits(font.getSize2D()));
+        }
+        String text = comp instanceof JLabel ? ((JLabel) comp).getText()
+                : comp instanceof AbstractButton ? ((AbstractButton) comp).getText() : null;
+        hash = mix(hash, text == null ? 0 : text.hashCode());
+        if (comp instanceof JComponent) {
+            Insets insets = ((JComponent) comp).getInsets();
+            hash = mix(hash, insets.top ^ insets.left << 8 ^ insets.bottom << 16 ^ insets.right << 24);
+        }
+        if (comp instanceof BLayout) {
+            BLayout ly = (BLayout) comp;
+            hash = mix(hash, ly.isCropToContent ? 1 : 0);
+            for (int i = 0; i < ly.getComponentCount(); i++) {
+                CompWrapper compWrapper = ly.compsAndStyles.get(ly.getComponent(i));
+                long styles = compWrapper != null ? compWrapper.getStyles() : ly.defaultCompCompWrapper.getStyles();
+                hash = mix(hash, (int) styles);
+                hash = mix(hash, (int) (styles >>> 32));
+            }
+        }
+        if (comp instanceof Container) {
+            Container container = (Container) comp;
+            hash = mix(hash, container.getComponentCount());
+            for (int i = 0; i < container.getComponentCount(); i++) {
+                hash = signatureOf(container.getComponent(i), hash);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * FNV-1a, one int at a time.
+     */
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * Returns the offset of the entry with the provided signature and layouts, or -1 if none.
+     */
+    private int find(long signature, List<BLayout> layouts) {
+        if (!map()) return -1;
+        for (int offset = HEADER_BYTES; offset < mapped.limit(); offset += 12 + mapped.getInt(offset + 8)) {
+            if (mapped.getLong(offset) != signature) continue;
+            // Double-check the child counts, in case of a hash collision
+            int end = offset + 12 + mapped.getInt(offset + 8);
+            int child = offset + 12;
+            for (BLayout ly : layouts) {
+                if (child + 4 > end || mapped.getInt(child) != ly.getComponentCount()) return -1;
+                child += 4 + ly.getComponentCount() * 8;
+            }
+            return child == end ? offset : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the files of all generations of the cache, by generation number, the newest last.
+     */
+    private TreeMap<Long, Path> generations() throws IOException {
+        TreeMap<Long, Path> generations = new TreeMap<>();
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir == null || !Files.isDirectory(dir)) return generations;
+        String prefix = file.getFileName() + ".";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, f -> f.getFileName().toString().startsWith(prefix))) {
+            for (Path f : stream) {
+                String suffix = f.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit) && suffix.length() < 19)
+                    generations.put(Long.parseLong(suffix), f);
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * Maps the newest generation if not mapped yet.
+     *
+     * @return false if there is none or it is not a valid cache.
+     */
+    private boolean map() {
+        if (mapped != null) return true;
+        Path newest;
+        try {
+            Map.Entry<Long, Path> entry = generations().lastEntry();
+            if (entry == null) return false;
+            newest = entry.getValue();
+        } catch (IOException e) {
+            Consumer<IOException> onError = this.onError;
+            if (onError != null) onError.accept(e);
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(newest, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return false;
+            // Validate the entry chain once, so that lookups never read out of bounds
+            int offset = HEADER_BYTES;
+            for (int e = 0; e < buffer.getInt(8); e++) {
+                if (offset + 12 > buffer.limit() || buffer.getInt(offset + 8) < 0) return false;
+                offset += 12 + buffer.getInt(offset + 8);
+            }
+            if (offset != buffer.limit()) return false;
+            mapped = buffer;
+            return true;
+        } catch (IOException e) {
+            return false; // Deleted by another instance meanwhile, or not readable
+        }
+    }
+
+    /**
+     * Writes the current geometry of the provided layouts as entry with the provided signature,
+     * replacing the existing entry with the same signature and removing the oldest ones above {@link #maxEntries}. <br>
+     * The result is written to a new generation, since the current one is mapped.
+     */
+    private void store(long signature, List<BLayout> layouts) throws IOException {
+        List<ByteBuffer> entries = new ArrayList<>();
+        if (map()) {
+            for (int offset = HEADER_BYTES; offset < mapped.limit(); offset += 12 + mapped.getInt(offset + 8)) {
+                if (mapped.getLong(offset) == signature) continue;
+                ByteBuffer entry = mapped.duplicate();
+                entry.position(offset).limit(offset + 12 + mapped.getInt(offset + 8));
+                entries.add(entry.slice());
+            }
+        }
+        int bytes = 0;
+        for (BLayout ly : layouts) {
+            bytes += 4 + ly.getComponentCount() * 8;
+        }
+        ByteBuffer entry = ByteBuffer.allocate(12 + bytes);
+        entry.putLong(signature).putInt(bytes);
+        for (BLayout ly : layouts) {
+            entry.putInt(ly.getComponentCount());
+            for (int i = 0; i < ly.getComponentCount(); i++) {
+                Component comp = ly.getComponent(i);
+                entry.putInt(comp.getWidth()).putInt(comp.getHeight());
+            }
+        }
+        entry.flip();
+        entries.add(entry);
+        while (entries.size() > Math.max(1, maxEntries)) entries.remove(0);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putInt(entries.size());
+        header.flip();
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) channel.write(header);
+            for (ByteBuffer e : entries) {
+                while (e.hasRemaining()) channel.write(e);
+            }
+        }
+        TreeMap<Long, Path> generations = generations();
+        long generation = generations.isEmpty() ? 1 : generations.lastKey() + 1;
+        Files.move(tmp, file.resolveSibling(file.getFileName() + "." + generation)); // Fails if it exists, instead of replacing
+        mapped = null; // Remap the new generation on the next lookup
+        for (Path old : generations.values()) {
+            try {
+                Files.deleteIfExists(old);
+            } catch (IOException e) {
+                // Still mapped on Windows, until garbage collected, thus deleted by a later store
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Restored trees whose cached geometry was correct.
+     */
+    public long getVerified() {
+        return verified;
+    }
+
+    /**
+     * Restored trees whose cached geometry differed from the real layout and got replaced.
+     */
+    public long getMismatches() {
+        return mismatches;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits + " misses=" + misses + " verified=" + verified + " mismatches=" + mismatches;
+    }
+}
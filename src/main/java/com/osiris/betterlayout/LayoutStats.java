@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+/**
+ * Counters about the layout passes of a single {@link BLayout}. <br>
+ * Usually gets updated inside the layout class.
+ *
+ * @see BLayout#stats
+ * @see InternalBetterLayout
+ */
+public class LayoutStats {
+    /**
+     * Total amount of {@link InternalBetterLayout#layoutContainer(java.awt.Container)} calls.
+     */
+    public long layoutPasses;
+    /**
+     * Passes that were skipped, because no row was dirty.
+     */
+    public long cacheHits;
+    /**
+     * Passes that had to measure or move at least one row.
+     */
+    public long cacheMisses;
+    /**
+     * Total amount of rows that were measured or moved.
+     * Compare this with {@link #cacheMisses} to see how incremental the passes are.
+     */
+    public long rowsLaidOut;
+    /**
+     * Asynchronous passes whose result got applied, see {@link BLayout#isAsyncLayout}.
+     */
+    public long asyncApplied;
+    /**
+     * Asynchronous passes whose result got dropped, because a newer pass was started
+     * or the child components changed in the meantime.
+     */
+    public long asyncDropped;
+    /**
+     * Passes during continuous resizing, that reused the measured sizes, see {@link BLayout#draftResizeMillis}.
+     */
+    public long draftPasses;
+    /**
+     * Full passes that re-measured the drafted child components, after the resizing stopped.
+     */
+    public long draftFinishPasses;
+    /**
+     * Child components of recomputed or moved rows whose bounds did not change, thus were not set again.
+     */
+    public long boundsSkipped;
+    /**
+     * Total area in pixels that passes repainted, which is the union of the old and new bounds of the changed child components.
+     */
+    public long repaintedArea;
+
+    /**
+     * Start times of the most recent passes in nanoseconds, as ring buffer.
+     * Only recorded while {@link BLayout#heatMapSeconds} is enabled.
+     */
+    private long[] passTimes;
+    private int passTimesIndex;
+
+    void recordPassTime(long nanos) {
+        if (passTimes == null) passTimes = new long[128];
+        passTimes[passTimesIndex] = nanos;
+        passTimesIndex = (passTimesIndex + 1) % passTimes.length;
+    }
+
+    /**
+     * Returns the amount of passes in the provided last seconds, at most 128.
+     * Only counts passes recorded while {@link BLayout#heatMapSeconds} is enabled.
+     */
+    public int getRecentPasses(int seconds) {
+        if (passTimes == null) return 0;
+        long since = System.nanoTime() - seconds * 1_000_000_000L;
+        int count = 0;
+        for (long time : passTimes) {
+            if (time != 0 && time - since > 0) count++;
+        }
+        return count;
+    }
+
+    public void reset() {
+        layoutPasses = 0;
+        cacheHits = 0;
+        cacheMisses = 0;
+        rowsLaidOut = 0;
+        passTimes = null;
+        passTimesIndex = 0;
+        asyncApplied = 0;
+        asyncDropped = 0;
+        draftPasses = 0;
+        draftFinishPasses = 0;
+        boundsSkipped = 0;
+        repaintedArea = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "passes=" + layoutPasses + " cache-hits=" + cacheHits + " cache-misses=" + cacheMisses
+                + " rows-laid-out=" + rowsLaidOut + " async-applied=" + asyncApplied +  " async-dropped=" + asyncDropped
+                + " draft-passes=" + draftPasses + " draft-finish-passes=" + draftFinishPasses
+                + " bounds-skipped=" + boundsSkipped + " repainted-area=" + repaintedArea;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.HierarchyBoundsAdapter;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.util.function.Supplier;
+
+/**
+ * Placeholder for a component that gets built only the first time the placeholder is showing and in view,
+ * see {@link BLayout#addLazyV(Supplier)}. Thus tabs, collapsed sections, hidden panels and parts of long scrollable
+ * layouts that are never opened or scrolled to cost neither startup time nor heap. <p>
+ * In view means that the placeholder lies inside the visible area of its parent, for example the part of
+ * a scrollable layout inside the viewport. Since the placeholder is usually 0x0 big, its edges count too.
+ * This gets checked when it's shown, moved or resized, and when an ancestor is moved or resized, like on scrolling. <p>
+ * Inside a {@link BLayout} the placeholder gets replaced by the built component, which takes over
+ * its slot and its {@link CompWrapper}, thus styles set on the placeholder carry over.
+ * Inside any other container, like a {@link JTabbedPane}, the built component gets added to the placeholder instead.
+ * <p>
+ * Until built the placeholder is empty and 0x0 big, unless a preferred size is set.
+ */
+public class LazyComponent extends JPanel {
+    private Supplier<? extends Component> supplier;
+    private Component component;
+    private boolean isBuildScheduled;
+    private final HierarchyListener showingListener = new HierarchyListener() {
+        @Override
+        public void hierarchyChanged(HierarchyEvent e) {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) buildIfInView();
+        }
+    };
+    private final HierarchyBoundsAdapter ancestorListener = new HierarchyBoundsAdapter() {
+        @Override
+        public void ancestorMoved(HierarchyEvent e) {
+            buildIfInView();
+        }
+
+        @Override
+        public void ancestorResized(HierarchyEvent e) {
+            buildIfInView();
+        }
+    };
+    private final ComponentAdapter boundsListener = new ComponentAdapter() {
+        @Override
+        public void componentResized(ComponentEvent e) {
+            buildIfInView();
+        }
+
+        @Override
+        public void componentMoved(ComponentEvent e) {
+            buildIfInView();
+        }
+
+        @Override
+        public void componentShown(ComponentEvent e) {
+            buildIfInView();
+        }
+    };
+
+    public LazyComponent(Supplier<? extends Component> supplier) {
+        super(new BorderLayout());
+        this.supplier = supplier;
+        setOpaque(false);
+        setPreferredSize(new Dimension(0, 0));
+        addHierarchyListener(showingListener);
+        addHierarchyBoundsListener(ancestorListener);
+        addComponentListener(boundsListener);
+    }
+
+    /**
+     * Schedules {@link #build()}, if this placeholder is showing and in view.
+     */
+    private void buildIfInView() {
+        if (isBuildScheduled || component != null || !isShowing() || !isInView()) return;
+        isBuildScheduled = true;
+        // Not while the event is dispatched, since the tree might be locked,
+        // and checked again later, since it might not be laid out yet
+        SwingUtilities.invokeLater(() -> {
+            isBuildScheduled = false;
+            if (component == null && isShowing() && isInView()) build();
+        });
+    }
+
+    /**
+     * Returns true if this placeholder lies inside the visible area of its parent, including its edges.
+     */
+    private boolean isInView() {
+        Container parent = getParent();
+        if (!(parent instanceof JComponent)) return true;
+        Rectangle view = ((JComponent) parent).getVisibleRect();
+        return getX() <= view.x + view.width && getX() + getWidth() >= view.x
+                && getY() <= view.y + view.height && getY() + getHeight() >= view.y;
+    }
+
+    /**
+     * Builds the component now, if not built yet, and puts it into the slot of this placeholder.
+     * Must be called on the event dispatch thread.
+     *
+     * @return the built component.
+     */
+    public Component build() {
+        if (component != null) return component;
+        removeHierarchyListener(showingListener);
+        removeHierarchyBoundsListener(ancestorListener);
+        removeComponentListener(boundsListener);
+        component = supplier.get();
+        supplier = null; // Allow garbage collection of whatever it captured
+        Container parent = getParent();
+        if (parent instanceof BLayout) {
+            ((BLayout) parent).replace(this, component);
+        } else {
+            setPreferredSize(null);
+            add(component, BorderLayout.CENTER);
+        }
+        if (parent != null) {
+            parent.revalidate();
+            parent.repaint();
+        }
+        return component;
+    }
+
+    public boolean isBuilt() {
+        return component != null;
+    }
+
+    /**
+     * Returns the built component, or null if not built yet.
+     */
+    public Component getBuiltComponent() {
+        return component;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Caches the preferred sizes of {@link JLabel}s measured by the layout, see {@link BLayout#measureCache}. <p>
+ * Two levels: <br>
+ * - Each measured label remembers its size, until one of the properties its size depends on changes,
+ * like its text, font, icon or border. <br>
+ * - Sizes are shared between labels, in a bounded map that evicts the least recently used entries.
+ * It's keyed by component class, text, font, icon, insets, UI scale and the other properties that affect the size.
+ * Thus, labels with identical content get measured only once. <p>
+ * Other components, and labels with an explicitly set preferred size, are always measured directly.
+ * Sizes are packed into a long, width in the upper and height in the lower 32 bits.
+ */
+public class MeasureCache {
+    private static final Set<String> SIZE_PROPERTIES = new HashSet<>(Arrays.asList(
+            "text", "font", "icon", "disabledIcon", "border", "iconTextGap", "horizontalTextPosition",
+            "verticalTextPosition", "horizontalAlignment", "verticalAlignment", "UI", "enabled",
+            "graphicsConfiguration", "preferredSize"));
+    private final Map<Key, Long> sizes;
+    private int capacity;
+    private long hits, misses, bypassed;
+
+    /**
+     * @param capacity maximum amount of shared sizes, 0 disables caching.
+     */
+    public MeasureCache(int capacity) {
+        this.capacity = capacity;
+        this.sizes = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size() > MeasureCache.this.capacity;
+            }
+        };
+        // Sizes measured with the old look and feel are useless
+        UIManager.addPropertyChangeListener(e -> {
+            if ("lookAndFeel".equals(e.getPropertyName())) clear();
+        });
+    }
+
+    public static int width(long size) {
+        return (int) (size >>> 32);
+    }
+
+    public static int height(long size) {
+        return (int) size;
+    }
+
+    private static long pack(Dimension size) {
+        return ((long) size.width << 32) | (size.height & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the preferred size of the provided component, packed into a long.
+     *
+     * @see #width(long)
+     * @see #height(long)
+     */
+    public synchronized long getPreferredSize(Component comp) {
+        if (capacity <= 0 || !(comp instanceof JLabel) || comp.isPreferredSizeSet()) {
+            bypassed++;
+            return pack(comp.getPreferredSize());
+        }
+        JLabel label = (JLabel) comp;
+        Memo memo = (Memo) label.getClientProperty(Memo.class);
+        if (memo != null && memo.isValid) {
+            hits++;
+            return memo.size;
+        }
+        Key key = new Key(label);
+        Long size = sizes.get(key);
+        if (size != null) hits++;
+        else {
+            misses++;
+            size = pack(label.getPreferredSize());
+            sizes.put(key, size);
+        }
+        if (memo == null) {
+            memo = new Memo();
+            label.addPropertyChangeListener(memo);
+            label.putClientProperty(Memo.class, memo);
+        }
+        memo.size = size;
+        memo.isValid = true;
+        return size;
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum amount of shared sizes, evicting the least recently used ones if needed.
+     * 0 disables caching.
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        if (capacity <= 0) {
+            clear();
+            return;
+        }
+        Iterator<Key> eldest = sizes.keySet().iterator(); // Access order, thus least recently used first
+        while (sizes.size() > capacity) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Removes all shared sizes. Sizes remembered by the labels themselves stay valid,
+     * until their properties change.
+     */
+    public synchronized void clear() {
+        sizes.clear();
+    }
+
+    public synchronized int size() {
+        return sizes.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Components that were measured directly, because they are not cacheable.
+     */
+    public synchronized long getBypassed() {
+        return bypassed;
+    }
+
+    /**
+     * Returns hits / (hits + misses), or 0 if nothing was cached yet.
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        bypassed = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size=" + sizes.size() + "/" + capacity + " hits=" + hits + " misses=" + misses + " bypassed=" + bypassed
+                + " hit-rate=" + String.format("%.2f", getHitRate());
+    }
+
+    /**
+     * Size remembered by a single label, gets invalid when a property its size depends on changes.
+     */
+    private static class Memo implements PropertyChangeListener {
+        long size;
+        volatile boolean isValid;
+
+        @Override
+        public void propertyChange(PropertyChangeEvent e) {
+            if (SIZE_PROPERTIES.contains(e.getPropertyName())) isValid = false;
+        }
+    }
+
+    private static class Key {
+        final Class<?> type, uiType;
+        final String text;
+        final Font font;
+        final Icon icon;
+        final int insetsTop, insetsLeft, insetsBottom, insetsRight;
+        final int iconTextGap, horizontalTextPosition, verticalTextPosition;
+        final double scale;
+        final int hash;
+
+        Key(JLabel label) {
+            type = label.getClass();
+            uiType = label.getUI() == null ? null : label.getUI().getClass();
+            text = label.getText();
+            font = label.getFont();
+            icon = label.isEnabled() ? label.getIcon() : label.getDisabledIcon();
+            Insets insets = label.getInsets();
+            insetsTop = insets.top;
+            insetsLeft = insets.left;
+            insetsBottom = insets.bottom;
+            insetsRight = insets.right;
+            iconTextGap = label.getIconTextGap();
+            horizontalTextPosition = label.getHorizontalTextPosition();
+            verticalTextPosition = label.getVerticalTextPosition();
+            GraphicsConfiguration gc = label.getGraphicsConfiguration();
+            scale = gc == null ? 1 : gc.getDefaultTransform().getScaleX();
+            hash = Objects.hash(type, uiType, text, font, icon, insetsTop, insetsLeft, insetsBottom, insetsRight,
+                    iconTextGap, horizontalTextPosition, verticalTextPosition, scale);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && type == key.type && uiType == key.uiType && Objects.equals(text, key.text)
+                    && Objects.equals(font, key.font) && icon == key.icon
+                    && insetsTop == key.insetsTop && insetsLeft == key.insetsLeft
+                    && insetsBottom == key.insetsBottom && insetsRight == key.insetsRight
+                    && iconTextGap == key.iconTextGap && horizontalTextPosition == key.horizontalTextPosition
+                    && verticalTextPosition == key.verticalTextPosition && scale == key.scale;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
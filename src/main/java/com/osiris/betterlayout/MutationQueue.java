@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import com.osiris.betterlayout.utils.UI;
+
+import javax.swing.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batches changes to layouts from any thread, see {@link BLayout#accessLater(Runnable)}. <p>
+ * Threads only append their changes to a lock-free queue. The event dispatch thread drains it
+ * at most once per {@link #frameMillis}, runs the changes of the batch in the order they were queued,
+ * and then revalidates all affected layouts together via {@link UI#revalidateAllUp(Collection)},
+ * which validates each of their validate roots only once. <br>
+ * Thus a thread pushing thousands of changes per second causes at most a single validation per frame and affected root,
+ * not per change or layout, and never touches components outside the event dispatch thread. <p>
+ * Can be used from any thread.
+ */
+public class MutationQueue {
+    /**
+     * Minimum time between two drains, 16 milliseconds by default (about 60 frames per second).
+     */
+    public volatile int frameMillis = 16;
+    private final ConcurrentLinkedQueue<Mutation> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger(), maxDepth = new AtomicInteger();
+    /**
+     * True from the first change of a batch until the drain of that batch starts.
+     */
+    private final AtomicBoolean isScheduled = new AtomicBoolean();
+    private final Timer timer = new Timer(0, e -> drain());
+    private volatile long lastDrainNanos;
+    // Only written by the event dispatch thread
+    private volatile long drains, drained, lastLatencyNanos, maxLatencyNanos;
+
+    public MutationQueue() {
+        timer.setRepeats(false);
+        // Otherwise the timer drops its event if restarted by a thread and firing again while still draining
+        timer.setCoalesce(false);
+    }
+
+    /**
+     * Queues the provided code, which changes the provided layout or its child components,
+     * to be run on the event dispatch thread in the next frame.
+     */
+    public void enqueue(BLayout layout, Runnable code) {
+        queue.add(new Mutation(layout, code, System.nanoTime()));
+        int depth = this.depth.incrementAndGet();
+        if (depth > maxDepth.get()) maxDepth.accumulateAndGet(depth, Math::max);
+        if (isScheduled.compareAndSet(false, true)) { // Only the first change of a batch starts the timer
+            long sinceLastDrainMillis = (System.nanoTime() - lastDrainNanos) / 1_000_000;
+            timer.setInitialDelay((int) Math.max(0, frameMillis - sinceLastDrainMillis));
+            timer.restart();
+        }
+    }
+
+    /**
+     * Runs all queued changes now and revalidates the affected layouts, once per validate root, must be called on the event dispatch thread.
+     * Changes queued while draining, also by the drained changes themselves, go into the next batch. <br>
+     * If changes throw, also errors, the other changes still run and the layouts still get revalidated,
+     * then the first one gets rethrown, with the others suppressed.
+     * Gets called automatically once per frame.
+     */
+    public void drain() {
+        timer.stop();
+        isScheduled.set(false); // Before polling, thus changes queued from now on schedule the next batch
+        long start = System.nanoTime();
+        lastDrainNanos = start;
+        int count = depth.get();
+        if (count == 0) return;
+        Set<BLayout> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+        Throwable error = null;
+        long oldestNanos = start;
+        int ran = 0;
+        try {
+            for (; ran < count; ran++) {
+                Mutation mutation = queue.poll();
+                if (mutation == null) break;
+                depth.decrementAndGet();
+                if (ran == 0) oldestNanos = mutation.nanos;
+                affected.add(mutation.layout);
+                try {
+                    mutation.code.run();
+                } catch (Throwable e) {
+                    if (error == null) error = e;
+                    else error.addSuppressed(e);
+                }
+            }
+        } finally {
+            try {
+                UI.revalidateAllUp(affected);
+            } finally {
+                long latency = System.nanoTime() - oldestNanos;
+                lastLatencyNanos = latency;
+                if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+                drains++;
+                drained += ran;
+            }
+        }
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error instanceof Error) throw (Error) error;
+        if (error != null) throw new RuntimeException(error); // Checked, thrown sneakily
+    }
+
+    /**
+     * Amount of changes that are queued and not drained yet.
+     */
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Highest {@link #getDepth()} so far.
+     */
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Amount of batches that ran at least one change.
+     */
+    public long getDrains() {
+        return drains;
+    }
+
+    /**
+     * Total amount of changes that ran.
+     */
+    public long getDrained() {
+        return drained;
+    }
+
+    /**
+     * Time from queueing the oldest change of the last batch, until its roots were revalidated.
+     */
+    public long getLastDrainLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /**
+     * Highest {@link #getLastDrainLatencyNanos()} so far.
+     */
+    public long getMaxDrainLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    public void resetStats() {
+        maxDepth.set(depth.get());
+        drains = 0;
+        drained = 0;
+        lastLatencyNanos = 0;
+        maxLatencyNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "depth=" + getDepth() + " max-depth=" + getMaxDepth() + " drains=" + drains + " drained=" + drained
+                + " last-latency=" + lastLatencyNanos / 1000 + "us max-latency=" + maxLatencyNanos / 1000 + "us";
+    }
+
+    private static class Mutation {
+        final BLayout layout;
+        final Runnable code;
+        /**
+         * Time it was queued.
+         */
+        final long nanos;
+
+        Mutation(BLayout layout, Runnable code, long nanos) {
+            this.layout = layout;
+            this.code = code;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -10,12 +10,14 @@ package com.osiris.betterlayout;
 
 /**
  * Style for a component. <br>
- * Internally represented by a binary string
- * with a length of 10. <br>
- * 0 000000000 <br>
- * The numbers in this class are indexes that point to
- * a specific bit. <br>
- * 1 means that specific feature is enabled, 0 means it's not.
+ * Internally all styles of a component are packed into a single long
+ * (see {@link CompWrapper#styles}), which is parsed once when the style gets set,
+ * so that the layout never has to look up or parse strings. <br>
+ * Bits 0-31: padding left, right, top and bottom (one byte each). <br>
+ * Bits 32-35: set-flags for the paddings above. <br>
+ * Bits 36-37: alignment (0 = unset, 1 = vertical, 2 = horizontal). <br>
+ * Bits 38-40: position (0 = unset, 1 = left, 2 = right, 3 = top, 4 = bottom, 5 = center). <br>
+ * Bits 41-48 and 49-56: width and height in percent of the parent, plus one (0 = unset).
  */
 public class Style {
     // ALIGNMENTS
@@ -42,6 +44,28 @@ public class Style {
     public static final Style padding_top = new Style("padding-top", "" + padding_s);
     public static final Style padding_bottom = new Style("padding-bottom", "" + padding_s);
 
+    // PACKED REPRESENTATION
+    static final int PADDING_LEFT = 0, PADDING_RIGHT = 1, PADDING_TOP = 2, PADDING_BOTTOM = 3;
+    /**
+     * All paddings, including their set-flags.
+     */
+    static final long PADDINGS_MASK = 0xFFFFFFFFL | (0xFL << 32);
+    static final int ALIGN_SHIFT = 36;
+    static final long ALIGN_MASK = 3L << ALIGN_SHIFT;
+    static final long ALIGN_VERTICAL = 1L << ALIGN_SHIFT;
+    static final long ALIGN_HORIZONTAL = 2L << ALIGN_SHIFT;
+    static final int POS_SHIFT = 38;
+    static final long POS_MASK = 7L << POS_SHIFT;
+    static final long POS_LEFT = 1L << POS_SHIFT;
+    static final long POS_RIGHT = 2L << POS_SHIFT;
+    static final long POS_TOP = 3L << POS_SHIFT;
+    static final long POS_BOTTOM = 4L << POS_SHIFT;
+    static final long POS_CENTER = 5L << POS_SHIFT;
+    static final int WIDTH_PERCENT_SHIFT = 41;
+    static final long WIDTH_PERCENT_MASK = 0xFFL << WIDTH_PERCENT_SHIFT;
+    static final int HEIGHT_PERCENT_SHIFT = 49;
+    static final long HEIGHT_PERCENT_MASK = 0xFFL << HEIGHT_PERCENT_SHIFT;
+
     public final String key;
     public final String value;
 
@@ -64,4 +88,73 @@ public class Style {
         }
         return arr;
     }
+
+    /**
+     * Returns the padding at the provided index ({@link #PADDING_LEFT} etc.),
+     * or 0 if not set.
+     */
+    static byte padding(long styles, int index) {
+        return (byte) (styles >>> (index * 8));
+    }
+
+    static boolean hasPadding(long styles, int index) {
+        return (styles & (1L << (32 + index))) != 0;
+    }
+
+    /**
+     * Returns the bits of the padding at the provided index, including its set-flag.
+     */
+    static long paddingMask(int index) {
+        return (0xFFL << (index * 8)) | (1L << (32 + index));
+    }
+
+    static long withPadding(long styles, int index, byte px) {
+        return (styles & ~paddingMask(index)) | ((px & 0xFFL) << (index * 8)) | (1L << (32 + index));
+    }
+
+    static long withoutPadding(long styles, int index) {
+        return styles & ~paddingMask(index);
+    }
+
+    /**
+     * Returns the width in percent of the parent, or -1 if not set.
+     */
+    static int widthPercent(long styles) {
+        return (int) ((styles & WIDTH_PERCENT_MASK) >>> WIDTH_PERCENT_SHIFT) - 1;
+    }
+
+    /**
+     * Returns the height in percent of the parent, or -1 if not set.
+     */
+    static int heightPercent(long styles) {
+        return (int) ((styles & HEIGHT_PERCENT_MASK) >>> HEIGHT_PERCENT_SHIFT) - 1;
+    }
+
+    /**
+     * @param percent 0 to 254, or -1 to unset.
+     */
+    static long withWidthPercent(long styles, int percent) {
+        return (styles & ~WIDTH_PERCENT_MASK) | ((long) (percent + 1) << WIDTH_PERCENT_SHIFT);
+    }
+
+    /**
+     * @param percent 0 to 254, or -1 to unset.
+     */
+    static long withHeightPercent(long styles, int percent) {
+        return (styles & ~HEIGHT_PERCENT_MASK) | ((long) (percent + 1) << HEIGHT_PERCENT_SHIFT);
+    }
+
+    /**
+     * Returns the provided percentage of the provided size.
+     */
+    static int percentOf(int size, int percent) {
+        return (int) ((long) size * percent / 100);
+    }
+
+    /**
+     * Components without alignment are horizontal.
+     */
+    static boolean isHorizontal(long styles) {
+        return (styles & ALIGN_MASK) != ALIGN_VERTICAL;
+    }
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import java.util.*;
+
+/**
+ * {@link Map} view of the packed {@link CompWrapper#styles}, including the ones of its {@link StyleSheet}. <br>
+ * Known {@link Style} keys get parsed once when put and are written directly
+ * into the packed long, unknown keys are kept in a separate map,
+ * since the layout doesn't use them anyway.
+ */
+class StyleMap extends AbstractMap<String, String> {
+    private static final String[] PADDING_KEYS = {Style.padding_left.key, Style.padding_right.key,
+            Style.padding_top.key, Style.padding_bottom.key};
+    /**
+     * Width and height in percent of the parent, see {@link CompWrapper#width(int)}.
+     */
+    static final String WIDTH_KEY = "width", HEIGHT_KEY = "height";
+    private final CompWrapper owner;
+    /**
+     * Styles with keys unknown to the layout. Lazily created.
+     */
+    private Map<String, String> extras;
+
+    StyleMap(CompWrapper owner) {
+        this.owner = owner;
+    }
+
+    private static int paddingIndex(Object key) {
+        for (int i = 0; i < PADDING_KEYS.length; i++) {
+            if (PADDING_KEYS[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    private static long alignOf(String value) {
+        if (Style.vertical.value.equals(value)) return Style.ALIGN_VERTICAL;
+        if (Style.horizontal.value.equals(value)) return Style.ALIGN_HORIZONTAL;
+        throw new IllegalArgumentException("Unknown value '" + value + "' for style '" + Style.vertical.key + "'.");
+    }
+
+    private static String alignToString(long styles) {
+        long align = styles & Style.ALIGN_MASK;
+        if (align == Style.ALIGN_VERTICAL) return Style.vertical.value;
+        if (align == Style.ALIGN_HORIZONTAL) return Style.horizontal.value;
+        return null;
+    }
+
+    private static long posOf(String value) {
+        if (Style.left.value.equals(value)) return Style.POS_LEFT;
+        if (Style.right.value.equals(value)) return Style.POS_RIGHT;
+        if (Style.top.value.equals(value)) return Style.POS_TOP;
+        if (Style.bottom.value.equals(value)) return Style.POS_BOTTOM;
+        if (Style.center.value.equals(value)) return Style.POS_CENTER;
+        throw new IllegalArgumentException("Unknown value '" + value + "' for style '" + Style.left.key + "'.");
+    }
+
+    private static String posToString(long styles) {
+        long pos = styles & Style.POS_MASK;
+        if (pos == Style.POS_LEFT) return Style.left.value;
+        if (pos == Style.POS_RIGHT) return Style.right.value;
+        if (pos == Style.POS_TOP) return Style.top.value;
+        if (pos == Style.POS_BOTTOM) return Style.bottom.value;
+        if (pos == Style.POS_CENTER) return Style.center.value;
+        return null;
+    }
+
+    private static int percentOf(String key, String value) {
+        int percent = Integer.parseInt(value.endsWith("%") ? value.substring(0, value.length() - 1) : value);
+        if (percent < 0 || percent > 254)
+            throw new IllegalArgumentException("Invalid value '" + value + "' for style '" + key + "', must be between 0 and 254.");
+        return percent;
+    }
+
+    @Override
+    public String get(Object key) {
+        long styles = owner.getStyles();
+        int paddingIndex = paddingIndex(key);
+        if (paddingIndex != -1)
+            return Style.hasPadding(styles, paddingIndex) ? Byte.toString(Style.padding(styles, paddingIndex)) : null;
+        if (Style.vertical.key.equals(key)) return alignToString(styles);
+        if (Style.left.key.equals(key)) return posToString(styles);
+        if (WIDTH_KEY.equals(key)) return Style.widthPercent(styles) < 0 ? null : Integer.toString(Style.widthPercent(styles));
+        if (HEIGHT_KEY.equals(key)) return Style.heightPercent(styles) < 0 ? null : Integer.toString(Style.heightPercent(styles));
+        return extras == null ? null : extras.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the key is a known {@link Style} key, but the value is invalid for it.
+     */
+    @Override
+    public String put(String key, String value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        String old = get(key);
+        int paddingIndex = paddingIndex(key);
+        if (paddingIndex != -1) {
+            owner.setStyles(Style.withPadding(owner.getStyles(), paddingIndex, Byte.parseByte(value)), Style.paddingMask(paddingIndex));
+        } else if (Style.vertical.key.equals(key)) {
+            owner.setStyles((owner.getStyles() & ~Style.ALIGN_MASK) | alignOf(value), Style.ALIGN_MASK);
+        } else if (Style.left.key.equals(key)) {
+            owner.setStyles((owner.getStyles() & ~Style.POS_MASK) | posOf(value), Style.POS_MASK);
+        } else if (WIDTH_KEY.equals(key)) {
+            owner.setStyles(Style.withWidthPercent(owner.getStyles(), percentOf(key, value)), Style.WIDTH_PERCENT_MASK);
+        } else if (HEIGHT_KEY.equals(key)) {
+            owner.setStyles(Style.withHeightPercent(owner.getStyles(), percentOf(key, value)), Style.HEIGHT_PERCENT_MASK);
+        } else {
+            if (extras == null) extras = new HashMap<>();
+            extras.put(key, value);
+        }
+        return old;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String old = get(key);
+        int paddingIndex = paddingIndex(key);
+        if (paddingIndex != -1) {
+            owner.setStyles(Style.withoutPadding(owner.getStyles(), paddingIndex), Style.paddingMask(paddingIndex));
+        } else if (Style.vertical.key.equals(key)) {
+            owner.setStyles(owner.getStyles() & ~Style.ALIGN_MASK, Style.ALIGN_MASK);
+        } else if (Style.left.key.equals(key)) {
+            owner.setStyles(owner.getStyles() & ~Style.POS_MASK, Style.POS_MASK);
+        } else if (WIDTH_KEY.equals(key)) {
+            owner.setStyles(owner.getStyles() & ~Style.WIDTH_PERCENT_MASK, Style.WIDTH_PERCENT_MASK);
+        } else if (HEIGHT_KEY.equals(key)) {
+            owner.setStyles(owner.getStyles() & ~Style.HEIGHT_PERCENT_MASK, Style.HEIGHT_PERCENT_MASK);
+        } else if (extras != null) {
+            extras.remove(key);
+        }
+        return old;
+    }
+
+    /**
+     * Copying from another {@link StyleMap} only copies the packed long
+     * and the unknown styles, without any parsing.
+     */
+    @Override
+    public void putAll(Map<? extends String, ? extends String> m) {
+        if (m instanceof StyleMap) {
+            StyleMap other = (StyleMap) m;
+            long otherStyles = other.owner.getStyles();
+            long mask = 0; // Only overwrite what is set in the other map, like a regular putAll would
+            for (int i = 0; i < PADDING_KEYS.length; i++) {
+                if (Style.hasPadding(otherStyles, i)) mask |= Style.paddingMask(i);
+            }
+            if ((otherStyles & Style.ALIGN_MASK) != 0) mask |= Style.ALIGN_MASK;
+            if ((otherStyles & Style.POS_MASK) != 0) mask |= Style.POS_MASK;
+            if ((otherStyles & Style.WIDTH_PERCENT_MASK) != 0) mask |= Style.WIDTH_PERCENT_MASK;
+            if ((otherStyles & Style.HEIGHT_PERCENT_MASK) != 0) mask |= Style.HEIGHT_PERCENT_MASK;
+            owner.setStyles((owner.getStyles() & ~mask) | (otherStyles & mask), mask);
+            putExtras(other);
+        } else
+            super.putAll(m);
+    }
+
+    /**
+     * Copies only the styles with keys unknown to the layout from the provided map.
+     */
+    void putExtras(StyleMap other) {
+        if (other.extras != null && !other.extras.isEmpty()) {
+            if (extras == null) extras = new HashMap<>();
+            extras.putAll(other.extras);
+        }
+    }
+
+    @Override
+    public void clear() {
+        owner.setStyles(0, -1L);
+        if (extras != null) extras.clear();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                List<Entry<String, String>> entries = new ArrayList<>();
+                long styles = owner.getStyles();
+                for (int i = 0; i < PADDING_KEYS.length; i++) {
+                    if (Style.hasPadding(styles, i))
+                        entries.add(new SimpleEntry<>(PADDING_KEYS[i], Byte.toString(Style.padding(styles, i))));
+                }
+                String align = alignToString(styles);
+                if (align != null) entries.add(new SimpleEntry<>(Style.vertical.key, align));
+                String pos = posToString(styles);
+                if (pos != null) entries.add(new SimpleEntry<>(Style.left.key, pos));
+                if (Style.widthPercent(styles) >= 0)
+                    entries.add(new SimpleEntry<>(WIDTH_KEY, Integer.toString(Style.widthPercent(styles))));
+                if (Style.heightPercent(styles) >= 0)
+                    entries.add(new SimpleEntry<>(HEIGHT_KEY, Integer.toString(Style.heightPercent(styles))));
+                if (extras != null) {
+                    for (Entry<String, String> e : extras.entrySet()) {
+                        entries.add(new SimpleEntry<>(e));
+                    }
+                }
+                Iterator<Entry<String, String>> it = entries.iterator();
+                return new Iterator<Entry<String, String>>() {
+                    private Entry<String, String> current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        return current = it.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null) throw new IllegalStateException();
+                        StyleMap.this.remove(current.getKey());
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                long styles = owner.getStyles();
+                int size = Long.bitCount(styles & (0xFL << 32));
+                if ((styles & Style.ALIGN_MASK) != 0) size++;
+                if ((styles & Style.POS_MASK) != 0) size++;
+                if ((styles & Style.WIDTH_PERCENT_MASK) != 0) size++;
+                if ((styles & Style.HEIGHT_PERCENT_MASK) != 0) size++;
+                if (extras != null) size += extras.size();
+                return size;
+            }
+        };
+    }
+}
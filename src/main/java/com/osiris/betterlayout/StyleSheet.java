@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Named set of styles, shared by all {@link CompWrapper}s that use it, see {@link CompWrapper#sheet(StyleSheet)}. <br>
+ * Sheets are interned by name, thus {@link #named(String)} always returns the same instance for the same name. <p>
+ * A wrapper references its sheet and only stores the styles set on itself, which override the ones of the sheet.
+ * The styles of a sheet are a single packed long (see {@link Style}), that gets replaced as a whole by {@link #edit(Consumer)}.
+ * Editing invalidates all containers with children using the sheet in one step, their children take over
+ * the new styles in the next layout pass. Thus, theme switches scale with the amount of containers, not children. <p>
+ * Children added to a {@link BLayout} use the sheet of its {@link BLayout#defaultCompCompWrapper},
+ * which is {@link #DEFAULT} by default.
+ */
+public final class StyleSheet {
+    private static final Map<String, StyleSheet> sheets = new ConcurrentHashMap<>();
+    /**
+     * Centered, with {@link Style#padding_s} padding on all sides.
+     */
+    public static final StyleSheet DEFAULT = named("default").edit(w -> w.center().padding());
+    public final String name;
+    volatile long styles;
+    /**
+     * Incremented on each change of the {@link #styles}.
+     */
+    volatile int version;
+    private final Set<BLayout> users = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    /**
+     * The last registered user, to skip the registration of its other children.
+     */
+    private volatile WeakReference<BLayout> lastUser = new WeakReference<>(null);
+
+    private StyleSheet(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the sheet with the provided name, creating an empty one if needed.
+     */
+    public static StyleSheet named(String name) {
+        return sheets.computeIfAbsent(name, StyleSheet::new);
+    }
+
+    /**
+     * Replaces the styles of this sheet with the result of the provided code,
+     * which gets a wrapper with the current styles, and invalidates all users.
+     * Can be used from any thread, the wrappers using this sheet take over the new styles
+     * synchronized, when their styles get read next, usually in the next layout pass.
+     */
+    public StyleSheet edit(Consumer<CompWrapper> code) {
+        BLayout[] users;
+        synchronized (this) {
+            CompWrapper wrapper = new CompWrapper();
+            wrapper.styles = styles;
+            code.accept(wrapper);
+            if (wrapper.styles == styles) return this;
+            styles = wrapper.styles;
+            version++;
+            users = this.users.toArray(new BLayout[0]);
+        }
+        for (BLayout ly : users) {
+            ly.markAllDirty();
+            ly.revalidate();
+            ly.repaint();
+        }
+        return this;
+    }
+
+    /**
+     * Returns a wrapper with a copy of the current styles of this sheet, for reading them.
+     */
+    public CompWrapper get() {
+        CompWrapper wrapper = new CompWrapper();
+        wrapper.styles = styles;
+        return wrapper;
+    }
+
+    void addUser(BLayout ly) {
+        if (lastUser.get() == ly) return;
+        lastUser = new WeakReference<>(ly);
+        users.add(ly);
+    }
+
+    @Override
+    public String toString() {
+        return name + get().map;
+    }
+}
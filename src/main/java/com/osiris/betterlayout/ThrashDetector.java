@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import java.awt.*;
+import java.lang.ref.WeakReference;
+import java.util.function.Consumer;
+
+/**
+ * Detects relayout feedback loops, see {@link BLayout#thrashDetector}. <p>
+ * Counts the layout passes that measured or moved something, per container and per
+ * event dispatch cycle (the event currently being dispatched). When a container exceeds {@link #threshold}
+ * passes in a single cycle, it reports the container path, its child component count
+ * and how its size oscillated to {@link #onThrash}, once per cycle. <br>
+ * With {@link #isCircuitBreaker} the size of a container that crops to its content stays frozen
+ * for the rest of that cycle, which breaks loops caused by cropping. <p>
+ * Passes outside the event dispatch thread are not tracked.
+ */
+public class ThrashDetector {
+    /**
+     * Passes per container per event dispatch cycle, above which it is considered thrashing. 0 disables detection.
+     */
+    public volatile int threshold = 50;
+    /**
+     * If true, thrashing containers don't crop to their content for the rest of the cycle.
+     */
+    public volatile boolean isCircuitBreaker = false;
+    /**
+     * Receives a description for each detected thrashing container. Prints to {@link System#err} by default.
+     */
+    public volatile Consumer<String> onThrash = System.err::println;
+    private volatile long thrashes;
+    /**
+     * The event of the current cycle, weakly referenced, shared by the {@link Cycle}s of all containers.
+     * Only used on the event dispatch thread.
+     */
+    private WeakReference<AWTEvent> currentEvent = new WeakReference<>(null);
+
+    /**
+     * Returns the path from the root to the provided component, like "JFrame > JPanel > BLayout[name]".
+     */
+    static String pathOf(Component comp) {
+        StringBuilder sb = new StringBuilder();
+        for (Component c = comp; c != null; c = c.getParent()) {
+            String name = c.getClass().getSimpleName() + (c.getName() != null ? "[" + c.getName() + "]" : "");
+            sb.insert(0, sb.length() == 0 ? name : name + " > ");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Records a pass that measured or moved something.
+     *
+     * @return true if the size of the container should stay frozen for the rest of this pass.
+     */
+    boolean recordPass(BLayout container, Cycle cycle) {
+        int threshold = this.threshold;
+        if (threshold <= 0 || !EventQueue.isDispatchThread()) return false;
+        AWTEvent event = EventQueue.getCurrentEvent();
+        WeakReference<AWTEvent> currentEvent = this.currentEvent;
+        if (currentEvent.get() != event) this.currentEvent = currentEvent = new WeakReference<>(event);
+        if (currentEvent != cycle.event) {
+            cycle.event = currentEvent;
+            cycle.passes = 0;
+            cycle.isThrashing = false;
+            cycle.minWidth = cycle.maxWidth = container.getWidth();
+            cycle.minHeight = cycle.maxHeight = container.getHeight();
+        }
+        cycle.passes++;
+        cycle.minWidth = Math.min(cycle.minWidth, container.getWidth());
+        cycle.maxWidth = Math.max(cycle.maxWidth, container.getWidth());
+        cycle.minHeight = Math.min(cycle.minHeight, container.getHeight());
+        cycle.maxHeight = Math.max(cycle.maxHeight, container.getHeight());
+        if (cycle.passes > threshold && !cycle.isThrashing) {
+            cycle.isThrashing = true;
+            thrashes++;
+            Consumer<String> onThrash = this.onThrash;
+            if (onThrash != null)
+                onThrash.accept("Layout thrashing: " + cycle.passes + " passes in one event dispatch cycle at "
+                        + pathOf(container) + " with " + container.getComponentCount() + " child components,"
+                        + " size oscillating between " + cycle.minWidth + "x" + cycle.minHeight
+                        + " and " + cycle.maxWidth + "x" + cycle.maxHeight
+                        + (isCircuitBreaker ? ", freezing its size for this cycle." : "."));
+        }
+        return cycle.isThrashing && isCircuitBreaker;
+    }
+
+    /**
+     * Total amount of detected thrashing containers (once per cycle).
+     */
+    public long getThrashes() {
+        return thrashes;
+    }
+
+    /**
+     * State of a single container in the current event dispatch cycle.
+     */
+    static class Cycle {
+        /**
+         * Reference to the event of this cycle, weakly, thus the event and its source don't stay alive
+         * until the next pass of the container.
+         */
+        WeakReference<AWTEvent> event;
+        int passes;
+        boolean isThrashing;
+        int minWidth, maxWidth, minHeight, maxHeight;
+    }
+}
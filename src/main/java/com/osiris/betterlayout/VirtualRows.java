@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Virtualized rows of a scrollable {@link BLayout}, see {@link BLayout#makeScrollable(int, RowFactory)}. <p>
+ * Only the rows that intersect the viewport (plus {@link #overscan} rows above and below)
+ * exist as child components of the layout. Rows that get scrolled out of view are
+ * given back to the {@link RowFactory} for recycling. <p>
+ * The height of the layout is the sum of all row heights, so that the scroll bars stay accurate.
+ * Rows that were never visible use {@link #estimatedRowHeight}, all others their measured height.
+ * The space above the first visible row is filled by a spacer component.
+ */
+public class VirtualRows {
+    public final BLayout layout;
+    public final JScrollPane scrollPane;
+    private final RowFactory rowFactory;
+    /**
+     * Amount of rows to create above and below the visible rows.
+     * Call {@link #update()} to see the changes on the UI.
+     */
+    public int overscan = 5;
+    /**
+     * Height of rows that were not measured yet, including padding.
+     * Defaults to the height of the first created row.
+     */
+    public int estimatedRowHeight;
+    private final Box.Filler spacer = new Box.Filler(new Dimension(), new Dimension(), new Dimension());
+    private final ArrayDeque<Component> recycled = new ArrayDeque<>();
+    private final int width;
+    private int rowCount;
+    /**
+     * Measured height of each row, or 0 if not measured yet.
+     */
+    private int[] heights = new int[0];
+    /**
+     * Fenwick tree over the row heights (measured or estimated), for fast offset lookups.
+     */
+    private long[] tree = new long[1];
+    private Component[] rows = new Component[0];
+    private int firstRow = 0, lastRow = -1; // Currently created rows, inclusive
+    private boolean isUpdating;
+
+    VirtualRows(BLayout layout, JScrollPane scrollPane, int rowCount, RowFactory rowFactory) {
+        this.layout = Objects.requireNonNull(layout);
+        this.scrollPane = Objects.requireNonNull(scrollPane);
+        this.rowFactory = Objects.requireNonNull(rowFactory);
+        this.width = layout.getPreferredSize().width;
+        layout.addV(spacer).delPadding();
+        scrollPane.getViewport().addChangeListener(e -> update());
+        setRowCount(rowCount);
+    }
+
+    /**
+     * Creates the components for the rows of the provided row indexes.
+     */
+    @FunctionalInterface
+    public interface RowFactory {
+        /**
+         * @param row      index of the row.
+         * @param recycled a component previously returned by this factory that is not visible anymore,
+         *                 or null. Update and return it, or return a new component.
+         * @return the component for the provided row.
+         */
+        Component getRow(int row, Component recycled);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Changes the total amount of rows and re-creates the visible rows,
+     * for example when the underlying data changed.
+     */
+    public void setRowCount(int rowCount) {
+        if (rowCount < 0) throw new IllegalArgumentException("Row count must be >= 0, but was " + rowCount);
+        this.rowCount = rowCount;
+        heights = new int[rowCount];
+        tree = new long[rowCount + 1];
+        if (estimatedRowHeight <= 0 && rowCount > 0) estimatedRowHeight = measure(0, null);
+        for (int i = 0; i < rowCount; i++) {
+            add(i, estimatedRowHeight);
+        }
+        recycleAll();
+        update();
+    }
+
+    /**
+     * Re-creates the visible rows, for example when the underlying data of the rows changed.
+     */
+    public void refreshRows() {
+        recycleAll();
+        update();
+    }
+
+    /**
+     * Returns the y position of the provided row, inside the layout.
+     */
+    public int getRowY(int row) {
+        return (int) sum(row);
+    }
+
+    /**
+     * Creates/recycles the rows, so that exactly the rows in the viewport (plus overscan) exist,
+     * measures them and updates the layout height. Gets called automatically on scroll.
+     */
+    public void update() {
+        if (isUpdating) return; // Changing sizes below triggers viewport changes
+        isUpdating = true;
+        try {
+            JViewport viewport = scrollPane.getViewport();
+            int viewY = viewport.getViewPosition().y;
+            int viewHeight = Math.max(viewport.getExtentSize().height, estimatedRowHeight);
+            int first = Math.max(0, rowAt(viewY) - overscan);
+            int last = Math.min(rowCount - 1, rowAt(viewY + viewHeight) + overscan);
+            if (first != firstRow || last != lastRow) {
+                realize(first, last);
+                measureRealized();
+                updateSize();
+            }
+        } finally {
+            isUpdating = false;
+        }
+    }
+
+    /**
+     * Scrolls to the last row, measuring it first so that the end is exact.
+     */
+    public void scrollToEnd() {
+        if (rowCount == 0) return;
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        // Scrolling measures the last rows, which might change the total height, thus repeat until it's stable
+        for (int i = 0; i < 3; i++) {
+            int max = bar.getMaximum();
+            bar.setValue(max);
+            scrollPane.getViewport().invalidate();
+            scrollPane.validate();
+            if (bar.getMaximum() == max) break;
+        }
+    }
+
+    /**
+     * Makes sure the rows from first to last (inclusive) and only those are child components
+     * of the layout, in the right order, after the spacer.
+     */
+    private void realize(int first, int last) {
+        Component[] newRows = new Component[Math.max(0, last - first + 1)];
+        for (int i = firstRow; i <= lastRow; i++) { // Keep still visible rows, recycle the others
+            if (i >= first && i <= last) newRows[i - first] = rows[i - firstRow];
+            else recycle(rows[i - firstRow]);
+        }
+        // Kept rows are already in order, thus new rows only need to be inserted at their index
+        for (int i = first; i <= last; i++) {
+            if (newRows[i - first] == null) {
+                Component recycledComp = recycled.poll();
+                if (recycledComp != null) recycledComp.setSize(0, 0); // So that the layout uses its preferred size
+                newRows[i - first] = rowFactory.getRow(i, recycledComp);
+                layout.addV(newRows[i - first], i - first + 1); // + 1 for the spacer
+            }
+        }
+        rows = newRows;
+        firstRow = first;
+        lastRow = last;
+    }
+
+    private void recycle(Component row) {
+        layout.remove(row);
+        recycled.push(row);
+    }
+
+    private void recycleAll() {
+        for (int i = 0; i < rows.length; i++) {
+            recycle(rows[i]);
+        }
+        rows = new Component[0];
+        firstRow = 0;
+        lastRow = -1;
+    }
+
+    /**
+     * Updates the heights of the created rows with their measured height.
+     */
+    private void measureRealized() {
+        for (int i = firstRow; i <= lastRow; i++) {
+            int height = measure(i, rows[i - firstRow]);
+            int oldHeight = heights[i] == 0 ? estimatedRowHeight : heights[i];
+            heights[i] = height;
+            if (height != oldHeight) add(i, height - oldHeight);
+        }
+        updateSpacer();
+    }
+
+    /**
+     * Sets the spacer height to the height of all rows above the first created row.
+     */
+    private void updateSpacer() {
+        Dimension spacerSize = new Dimension(0, getRowY(firstRow));
+        spacer.changeShape(spacerSize, spacerSize, spacerSize);
+        spacer.setSize(spacerSize); // The layout never shrinks components below their current size
+    }
+
+    /**
+     * Returns the height of the provided row component, including padding.
+     * If the component is null, it gets created via the factory and recycled afterwards.
+     */
+    private int measure(int row, Component comp) {
+        boolean isTemporary = comp == null;
+        if (isTemporary) comp = rowFactory.getRow(row, recycled.poll());
+        CompWrapper compWrapper = layout.getChildStyles(comp);
+        if (compWrapper == null) compWrapper = layout.defaultCompCompWrapper;
+        int height = comp.getPreferredSize().height + compWrapper.getPaddingTop() + compWrapper.getPaddingBottom();
+        if (isTemporary) recycled.push(comp);
+        return Math.max(1, height);
+    }
+
+    /**
+     * Sets the layout height to the total height of all rows.
+     */
+    private void updateSize() {
+        int maxWidth = width;
+        for (Component row : rows) {
+            CompWrapper compWrapper = layout.getChildStyles(row);
+            maxWidth = Math.max(maxWidth, row.getPreferredSize().width + compWrapper.getPaddingLeft() + compWrapper.getPaddingRight());
+        }
+        Dimension size = new Dimension(maxWidth, getRowY(rowCount));
+        if (size.equals(layout.getPreferredSize())) return;
+        InternalBetterLayout internalLayout = (InternalBetterLayout) layout.getLayout();
+        internalLayout.preferredSize = size;
+        internalLayout.minimumSize = size;
+        layout.setPreferredSize(size);
+        layout.setMinimumSize(size);
+        layout.setMaximumSize(size);
+        layout.revalidate();
+        // Updates that happen while the viewport lays itself out (on resize for example),
+        // get overwritten by it, thus make sure the new size gets applied afterwards too
+        SwingUtilities.invokeLater(layout::revalidate);
+    }
+
+    /**
+     * Returns the index of the row at the provided y position inside the layout.
+     */
+    private int rowAt(int y) {
+        // Binary lifting over the Fenwick tree
+        int pos = 0;
+        long remaining = y;
+        for (int step = Integer.highestOneBit(Math.max(1, rowCount)); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= rowCount && tree[next] <= remaining) {
+                pos = next;
+                remaining -= tree[next];
+            }
+        }
+        return Math.min(pos, Math.max(0, rowCount - 1));
+    }
+
+    /**
+     * Adds the provided delta to the height of the provided row.
+     */
+    private void add(int row, long delta) {
+        for (int i = row + 1; i <= rowCount; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Returns the sum of the heights of all rows before the provided row.
+     */
+    private long sum(int row) {
+        long sum = 0;
+        for (int i = row; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "rows=" + rowCount + " created=" + firstRow + "-" + lastRow + " recycled=" + recycled.size()
+                + " measured=" + Arrays.stream(heights).filter(h -> h != 0).count();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout.utils;
+
+import com.osiris.betterlayout.BLayout;
+import com.osiris.betterlayout.LayoutMetrics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Coalesces refresh requests, see {@link UI#refresh(Component)}. <p>
+ * Instead of posting a new event for each request, pending components are collected
+ * and refreshed together on the event dispatch thread, at most once per {@link #frameMillis}. <br>
+ * - Requesting a component that is already pending does nothing. <br>
+ * - Requesting a component whose ancestor is pending only invalidates the component before
+ * the ancestor gets refreshed, since the ancestor's refresh lays out and repaints it too. <br>
+ * - Requesting an ancestor of pending components does the same for those components. <p>
+ * Can be used from any thread.
+ */
+public class RefreshScheduler {
+    /**
+     * Minimum time between two refreshes, 16 milliseconds by default (about 60 frames per second).
+     */
+    public volatile int frameMillis = 16;
+    private final Set<Component> pending = new LinkedHashSet<>();
+    /**
+     * Pending components that got collapsed into a pending ancestor.
+     */
+    private final Set<Component> collapsed = new LinkedHashSet<>();
+    private final Timer timer = new Timer(0, e -> run());
+    private long lastRunNanos;
+    private long requests, coalesced, frames, refreshed;
+
+    public RefreshScheduler() {
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Schedules a refresh of the provided component for the next frame,
+     * which does {@link Component#repaint()}, {@link Component#revalidate()}
+     * and resizes it to its preferred size. <br>
+     * {@link BLayout}s get repainted via {@link BLayout#repaintAfterLayout()}, thus as a whole only if their layout did not change.
+     */
+    public synchronized void request(Component comp) {
+        LayoutMetrics.recordRefreshRequest(comp);
+        requests++;
+        if (pending.contains(comp) || collapsed.contains(comp)) {
+            coalesced++;
+            return;
+        }
+        for (Container parent = comp.getParent(); parent != null; parent = parent.getParent()) {
+            if (pending.contains(parent)) {
+                collapsed.add(comp);
+                coalesced++;
+                return;
+            }
+        }
+        if (comp instanceof Container && !pending.isEmpty()) {
+            Container container = (Container) comp;
+            for (Component pendingComp : pending.toArray(new Component[0])) {
+                if (SwingUtilities.isDescendingFrom(pendingComp, container)) {
+                    pending.remove(pendingComp);
+                    collapsed.add(pendingComp);
+                    coalesced++;
+                }
+            }
+        }
+        pending.add(comp);
+        if (!timer.isRunning()) {
+            long sinceLastRunMillis = (System.nanoTime() - lastRunNanos) / 1_000_000;
+            timer.setInitialDelay((int) Math.max(0, frameMillis - sinceLastRunMillis));
+            timer.start();
+        }
+    }
+
+    /**
+     * Refreshes all pending components now, must be called on the event dispatch thread.
+     * Gets called automatically once per frame.
+     */
+    public void run() {
+        Component[] comps, collapsedComps;
+        synchronized (this) {
+            timer.stop();
+            comps = pending.toArray(new Component[0]);
+            collapsedComps = collapsed.toArray(new Component[0]);
+            pending.clear();
+            collapsed.clear();
+            lastRunNanos = System.nanoTime();
+            if (comps.length == 0) return;
+            frames++;
+            refreshed += comps.length;
+        }
+        for (Component comp : collapsedComps) {
+            comp.invalidate();
+        }
+        for (Component comp : comps) {
+            comp.revalidate();
+            if (comp instanceof BLayout) ((BLayout) comp).repaintAfterLayout();
+            else comp.repaint();
+            comp.resize(comp.getPreferredSize());
+        }
+    }
+
+    /**
+     * Total amount of {@link #request(Component)} calls.
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Requests that did not cause an additional refresh, because the component
+     * or one of its ancestors was already pending, or that got collapsed into a later requested ancestor.
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Amount of frames in which at least one component got refreshed.
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Total amount of components that got refreshed.
+     */
+    public synchronized long getRefreshed() {
+        return refreshed;
+    }
+
+    public synchronized void resetStats() {
+        requests = 0;
+        coalesced = 0;
+        frames = 0;
+        refreshed = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "requests=" + requests + " coalesced=" + coalesced + " frames=" + frames + " refreshed=" + refreshed;
+    }
+}
@@ -8,19 +8,27 @@
 
 package com.osiris.betterlayout.utils;
 
+import com.osiris.betterlayout.LayoutMetrics;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.ArrayList;
+import java.util.Collection;
 
 public class UI {
+    /**
+     * Coalesces the requests of {@link #refresh(Component)}.
+     */
+    public static final RefreshScheduler refreshScheduler = new RefreshScheduler();
 
+    /**
+     * Repaints, revalidates and resizes the provided component to its preferred size,
+     * in the next frame on the event dispatch thread. <br>
+     * Multiple calls for the same component, or its child components, within one frame
+     * result in a single refresh, see {@link RefreshScheduler}. <br>
+     * {@link com.osiris.betterlayout.BLayout}s only repaint the regions of changed child components, if any changed.
+     */
     public static void refresh(Component comp) {
-        SwingUtilities.invokeLater(() -> {
-            comp.repaint();
-            comp.revalidate();
-            comp.resize(comp.getPreferredSize());
-        });
+        refreshScheduler.request(comp);
     }
 
     public static void validateDown(Component comp) {
@@ -48,52 +56,26 @@ public class UI {
      * it goes from child to parent, to ensure
      * child sizes are correct before doing the parent sizes. <p>
      * <p>
-     * It finds all the child containers that are the furthest away
-     * from this container and moves up (validates each) until it reaches this container.
-     * Then validates this and continues going up and validating each until reaching the root container.<p>
+     * It collects all invalid containers below this container once and validates each exactly once,
+     * the ones furthest away first, until it reaches this container.
+     * Then validates this and continues going up and validating each,
+     * until reaching a container whose layout can't have changed, since the sizes below it stayed the same. <p>
      * <p>
-     * If onlyUp is true then it skips the search for the furthest child
-     * containers and validates only this container and the containers above it, until the root container. <p>
+     * If onlyUp is true then it skips the search for invalid child
+     * containers and validates only this container and the containers above it. <p>
      * <p>
      * Note that only validates if needed aka the container is invalid or a child component of
      * the container is invalid.
+     *
+     * @see ValidationEngine
      */
     public static void validateAllUp(Component comp, boolean onlyUp) {
         synchronized (comp.getTreeLock()) {
             if (!(comp instanceof Container))
                 comp = comp.getParent();
             if (comp == null) return;
-            Container container = (Container) comp;
-            if (!onlyUp) { // Validate all child containers up to this container
-                java.util.List<Container> containersFurthestAway = new ArrayList<>();
-                for (Component c : container.getComponents()) {
-                    if (c instanceof Container)
-                        containersFurthestAway.add(findFurthestChildContainer((Container) c));
-                }
-                for (Container childContainer : containersFurthestAway) {
-                    Container parent = childContainer;
-                    while (parent != container) {
-                        //System.err.println("VALIDATINGGG: "+parent.getClass().getSimpleName()+"/"+Integer.toHexString(parent.hashCode()));
-                        parent.validate();
-                        parent = parent.getParent();
-                    }
-                }
-            }
-
-            Container parent = container; // Validate up till root
-            while (parent != null) {
-                parent.validate();
-                parent = parent.getParent();
-            }
-        }
-    }
-
-    private static Container findFurthestChildContainer(Container container) {
-        for (Component component : container.getComponents()) {
-            if (component instanceof Container)
-                return findFurthestChildContainer((Container) component);
+            ValidationEngine.validate((Container) comp, false, onlyUp);
         }
-        return container;
     }
 
     /**
@@ -108,45 +90,38 @@ public class UI {
      * it goes from child to parent, to ensure
      * child sizes are correct before doing the parent sizes. <p>
      * <p>
-     * It finds all the child containers that are the furthest away
-     * from this container and moves up (validates each) until it reaches this container.
-     * Then validates this and continues going up and validating each until reaching the root container.<p>
+     * It invalidates all containers below this container and validates each exactly once,
+     * the ones furthest away first, until it reaches this container.
+     * Then validates this and continues going up and validating each,
+     * until reaching a container whose layout can't have changed, since the sizes below it stayed the same. <p>
      * <p>
-     * If onlyUp is true then it skips the search for the furthest child
-     * containers and validates only this container and the containers above it, until the root container. <p>
-     * <p>
-     * Note that only validates if needed aka the container is invalid or a child component of
-     * the container is invalid.
+     * If onlyUp is true then it skips the child
+     * containers and revalidates only this container and the containers above it.
+     *
+     * @see ValidationEngine
      */
     public static void revalidateAllUp(Component comp, boolean onlyUp) {
+        LayoutMetrics.recordRevalidateAllUp(comp);
         synchronized (comp.getTreeLock()) {
             if (!(comp instanceof Container))
                 comp = comp.getParent();
             if (comp == null) return;
-            Container container = (Container) comp;
-            if (!onlyUp) { // Validate all child containers up to this container
-                java.util.List<Container> containersFurthestAway = new ArrayList<>();
-                for (Component c : container.getComponents()) {
-                    if (c instanceof Container)
-                        containersFurthestAway.add(findFurthestChildContainer((Container) c));
-                }
-                for (Container childContainer : containersFurthestAway) {
-                    Container parent = childContainer;
-                    while (parent != container) {
-                        //System.err.println("VALIDATINGGG: "+parent.getClass().getSimpleName()+"/"+Integer.toHexString(parent.hashCode()));
-                        parent.invalidate();
-                        parent.validate();
-                        parent = parent.getParent();
-                    }
-                }
-            }
+            ValidationEngine.validate((Container) comp, true, onlyUp);
+        }
+    }
 
-            Container parent = container; // Validate up till root
-            while (parent != null) {
-                parent.invalidate();
-                parent.validate();
-                parent = parent.getParent();
-            }
+    /**
+     * Does {@link #revalidateAllUp(Component)} for all provided components,
+     * but validates each of their validate roots (see {@link Container#isValidateRoot()}) only once. <br>
+     * Thus changing sibling layouts under the same root costs a single validation of that root,
+     * instead of one per layout.
+     *
+     * @see ValidationEngine
+     */
+    public static void revalidateAllUp(Collection<? extends Component> comps) {
+        if (comps.isEmpty()) return;
+        synchronized (comps.iterator().next().getTreeLock()) { // Same lock for all components
+            ValidationEngine.validateRoots(comps);
         }
     }
 
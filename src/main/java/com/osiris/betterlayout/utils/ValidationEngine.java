@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+package com.osiris.betterlayout.utils;
+
+import com.osiris.betterlayout.BLayout;
+import com.osiris.betterlayout.LayoutMetrics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates a component tree bottom-up, used by {@link UI#validateAllUp(Component, boolean)}
+ * and {@link UI#revalidateAllUp(Component, boolean)}. <p>
+ * 1. Collects the invalid containers of the subtree once (all containers if revalidating),
+ * in post-order, thus child containers always come before their parents.
+ * Valid containers are skipped with their whole subtree, since AWT invalidates all ancestors of an invalid component. <br>
+ * 2. Validates each of them exactly once in that order. <br>
+ * 3. Walks up the ancestors and validates each, until reaching the first ancestor that was valid before
+ * and whose child has the same size and preferred size as before, since its layout can't have changed.
+ * Still invalid ancestors above it are left to Swing's regular (queued) validation. <p>
+ * Since a child gets validated before its parent, a parent {@link BLayout} would not see that it changed,
+ * thus collected children of a {@link BLayout} get marked dirty in it first. <br>
+ * Thus the work is proportional to the amount of invalid containers, not to depth * paths. <p>
+ * Several changed components can be validated at once via {@link #validateRoots(Collection)},
+ * which invalidates all of them first and then runs the steps above once per validate root.
+ */
+class ValidationEngine {
+
+    static void validate(Container container, boolean isRevalidate, boolean onlyUp) {
+        // Remember the sizes of the container and its ancestors, to know where changes stop
+        int depth = 0;
+        for (Container parent = container; parent != null; parent = parent.getParent()) depth++;
+        Container[] path = new Container[depth];
+        int[] sizes = new int[depth * 4];
+        boolean[] wasValid = new boolean[depth];
+        int i = 0;
+        for (Container parent = container; parent != null; parent = parent.getParent(), i++) {
+            path[i] = parent;
+            wasValid[i] = parent.isValid();
+            putSize(parent, sizes, i);
+        }
+
+        if (onlyUp) {
+            if (isRevalidate) container.invalidate();
+            if (!container.isValid()) validateBeforeParent(container);
+        } else {
+            List<Container> invalid = new ArrayList<>();
+            collectInvalid(container, isRevalidate, invalid);
+            for (Container c : invalid) {
+                if (!c.isValid()) validateBeforeParent(c); // Skip if validated in the meantime, by a resized parent for example
+            }
+        }
+
+        for (i = 1; i < depth; i++) {
+            if (wasValid[i] && !hasChanged(path[i - 1], sizes, i - 1)) {
+                if (!path[i].isValid() && path[i] instanceof JComponent)
+                    ((JComponent) path[i]).revalidate();
+                return;
+            }
+            if (isRevalidate) path[i].invalidate();
+            if (path[i] instanceof BLayout) ((BLayout) path[i]).markDirty(path[i - 1]); // Changed, but valid already
+            if (!path[i].isValid()) path[i].validate();
+        }
+    }
+
+    /**
+     * Invalidates the provided components and their subtrees, then validates each of their validate roots once,
+     * thus components sharing a root cost a single validation of it, instead of one per component.
+     */
+    static void validateRoots(Collection<? extends Component> comps) {
+        Map<Container, List<Component>> roots = new LinkedHashMap<>();
+        for (Component comp : comps) {
+            Container root = validateRootOf(comp);
+            if (root != null) roots.computeIfAbsent(root, r -> new ArrayList<>()).add(comp);
+        }
+        for (Map.Entry<Container, List<Component>> entry : roots.entrySet()) {
+            Container root = entry.getKey();
+            LayoutMetrics.recordRevalidateAllUp(root);
+            for (Component comp : entry.getValue()) invalidateAll(comp);
+            validate(root, false, false);
+        }
+    }
+
+    /**
+     * Returns the closest {@link Container#isValidateRoot()} of the provided component,
+     * or its topmost ancestor if none, or null if it's no container and has no parent.
+     */
+    private static Container validateRootOf(Component comp) {
+        Container root = comp instanceof Container ? (Container) comp : comp.getParent();
+        if (root == null) return null;
+        while (!root.isValidateRoot() && root.getParent() != null) root = root.getParent();
+        return root;
+    }
+
+    private static void invalidateAll(Component comp) {
+        if (comp instanceof Container) {
+            Container container = (Container) comp;
+            int count = container.getComponentCount();
+            for (int i = 0; i < count; i++) invalidateAll(container.getComponent(i));
+        }
+        comp.invalidate();
+    }
+
+    /**
+     * Adds the invalid containers of the provided subtree in post-order, children first.
+     *
+     * @param isInvalidate if true, invalidates and adds all containers.
+     */
+    private static void collectInvalid(Container container, boolean isInvalidate, List<Container> invalid) {
+        if (!isInvalidate && container.isValid()) return; // Thus its subtree is valid too
+        int count = container.getComponentCount();
+        for (int i = 0; i < count; i++) {
+            Component comp = container.getComponent(i);
+            if (comp instanceof Container)
+                collectInvalid((Container) comp, isInvalidate, invalid);
+        }
+        if (isInvalidate) container.invalidate();
+        if (!container.isValid()) invalid.add(container);
+    }
+
+    /**
+     * Validates the provided container, after marking it dirty in its parent, if that's a {@link BLayout}.
+     */
+    private static void validateBeforeParent(Container container) {
+        if (container.getParent() instanceof BLayout) ((BLayout) container.getParent()).markDirty(container);
+        container.validate();
+    }
+
+    private static void putSize(Container container, int[] sizes, int index) {
+        Dimension preferredSize = container.getPreferredSize();
+        int j = index * 4;
+        sizes[j] = container.getWidth();
+        sizes[j + 1] = container.getHeight();
+        sizes[j + 2] = preferredSize.width;
+        sizes[j + 3] = preferredSize.height;
+    }
+
+    private static boolean hasChanged(Container container, int[] sizes, int index) {
+        Dimension preferredSize = container.getPreferredSize();
+        int j = index * 4;
+        return sizes[j] != container.getWidth() || sizes[j + 1] != container.getHeight()
+                || sizes[j + 2] != preferredSize.width || sizes[j + 3] != preferredSize.height;
+    }
+}
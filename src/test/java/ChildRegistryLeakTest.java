@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+import com.osiris.betterlayout.BLayout;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ComponentEvent;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Makes sure removed child components are unregistered right away
+ * and get garbage collected, without another layout pass.
+ */
+class ChildRegistryLeakTest {
+    private static final int SUBTREES = 100;
+
+    @Test
+    void removedSubtreesGetCollected() throws Exception {
+        BLayout[] root = new BLayout[1];
+        List<WeakReference<Component>> removed = new ArrayList<>();
+        SwingUtilities.invokeAndWait(() -> {
+            JPanel parent = new JPanel(); // Parent needed, otherwise the screen size is used, which fails when headless
+            parent.setSize(800, 600);
+            BLayout ly = new BLayout(parent, 100, 100);
+            for (int i = 0; i < SUBTREES; i++) {
+                BLayout subtree = new BLayout(ly, true);
+                for (int j = 0; j < 10; j++) {
+                    subtree.addH(new JLabel("Label " + i + "/" + j));
+                }
+                ly.addV(subtree);
+            }
+            ly.addNotify(); // Make displayable, otherwise AWT considers all components invalid
+            ly.validate();
+            root[0] = ly;
+        });
+        SwingUtilities.invokeAndWait(() -> {
+            BLayout ly = root[0];
+            for (int i = SUBTREES - 1; i >= 0; i -= 2) {
+                Component subtree = ly.getComponent(i);
+                ly.remove(subtree);
+                assertFalse(ly.compsAndStyles.containsKey(subtree));
+                removed.add(new WeakReference<>(subtree));
+                removed.add(new WeakReference<>(((Container) subtree).getComponent(0)));
+            }
+            assertEquals(SUBTREES / 2, ly.compsAndStyles.size());
+        });
+        SwingUtilities.invokeAndWait(() -> {
+            // Flush events that reference the removed components
+        });
+
+        for (int i = 0; i < 50 && removed.stream().anyMatch(ref -> ref.get() != null); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        for (WeakReference<Component> ref : removed) {
+            assertNull(ref.get(), "Removed component was not garbage collected.");
+        }
+        assertEquals(SUBTREES / 2, root[0].getComponentCount()); // Keep the root reachable
+    }
+
+    @Test
+    void removedLayoutsDoNotListenToTheirParent() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            JPanel parent = new JPanel();
+            parent.setSize(800, 600);
+            parent.addNotify(); // Displayable, thus added children get notified too
+            BLayout ly = new BLayout(parent, 100, 100);
+            parent.add(ly);
+            int listeners = ly.getComponentListeners().length, parentListeners = parent.getComponentListeners().length;
+            for (int i = 0; i < 5000; i++) {
+                BLayout cropped = new BLayout(ly, true);
+                ly.addV(cropped);
+                ly.remove(cropped);
+                BLayout percent = new BLayout(ly, 50, 50); // Resolved by the parent layout
+                ly.addV(percent);
+                ly.remove(percent);
+                BLayout other = new BLayout(parent, 50, 50); // Listens to its parent while displayable
+                parent.add(other);
+                parent.remove(other);
+            }
+            assertEquals(listeners, ly.getComponentListeners().length);
+            assertEquals(parentListeners, parent.getComponentListeners().length);
+
+            BLayout other = new BLayout(parent, 50, 50);
+            parent.add(other);
+            assertEquals(parentListeners + 1, parent.getComponentListeners().length);
+            parent.setSize(400, 300);
+            parent.dispatchEvent(new ComponentEvent(parent, ComponentEvent.COMPONENT_RESIZED));
+            assertEquals(new Dimension(200, 150), other.getSize());
+        });
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+import com.osiris.betterlayout.BLayout;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Makes sure the indexed {@link BLayout#getComponentAt(int, int)} and {@link BLayout#findComponentAt(int, int)}
+ * return the same components as a linear scan over the child components.
+ */
+class HitTestTest {
+
+    private static BLayout newLayout(boolean isWrap, Random random) {
+        JPanel parent = new JPanel(); // Parent needed, otherwise the screen size is used, which fails when headless
+        parent.setSize(800, 600);
+        BLayout ly = new BLayout(parent, 100, 100);
+        ly.isWrap = isWrap;
+        for (int i = 0; i < 2000; i++) {
+            JLabel label = new JLabel("Label " + i);
+            label.setPreferredSize(new Dimension(5 + random.nextInt(60), 5 + random.nextInt(20)));
+            if (random.nextInt(8) == 0) ly.addV(label).padding(random.nextInt(6));
+            else ly.addH(label).padding(random.nextInt(6));
+            if (random.nextInt(10) == 0) label.setVisible(false);
+        }
+        return ly;
+    }
+
+    /**
+     * Returns the first visible child containing the provided position, or the layout itself if none.
+     */
+    private static Component linearComponentAt(Container ly, int x, int y) {
+        if (!ly.contains(x, y)) return null;
+        for (Component comp : ly.getComponents()) {
+            if (comp.isVisible() && comp.contains(x - comp.getX(), y - comp.getY())) return comp;
+        }
+        return ly;
+    }
+
+    @Test
+    void componentAtMatchesLinearScan() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            Random random = new Random(1);
+            for (boolean isWrap : new boolean[]{false, true}) {
+                BLayout ly = newLayout(isWrap, random);
+                ly.addNotify(); // Make displayable, otherwise AWT considers all components invalid
+                ly.validate();
+                int width = ly.getWidth(), height = ly.getHeight();
+                for (int k = 0; k < 100_000; k++) {
+                    // Also outside the layout, and in the space below the last row
+                    int x = random.nextInt(width + 100) - 50, y = random.nextInt(height + 100) - 50;
+                    assertSame(linearComponentAt(ly, x, y), ly.getComponentAt(x, y), "Wrong component at " + x + " " + y);
+                }
+            }
+        });
+    }
+
+    @Test
+    void findComponentAtSearchesChildLayouts() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            JPanel parent = new JPanel();
+            parent.setSize(800, 600);
+            BLayout ly = new BLayout(parent, 100, 100);
+            JLabel first = new JLabel("First");
+            ly.addH(first).padding(10);
+            BLayout child = new BLayout(ly, true);
+            JButton deep = new JButton("Deep");
+            child.addH(deep);
+            ly.addV(child);
+            ly.addNotify();
+            ly.validate();
+
+            assertSame(first, ly.findComponentAt(first.getX() + 1, first.getY() + 1));
+            assertSame(deep, ly.findComponentAt(child.getX() + deep.getX() + 1, child.getY() + deep.getY() + 1));
+            assertSame(child, ly.getComponentAt(child.getX() + deep.getX() + 1, child.getY() + deep.getY() + 1));
+            assertSame(ly, ly.findComponentAt(first.getX() - 5, first.getY() - 5)); // Padding gap
+            assertSame(ly, ly.findComponentAt(1, ly.getHeight() - 1)); // Below the last row
+            assertEquals(null, ly.findComponentAt(-1, -1));
+
+            deep.setVisible(false);
+            ly.validate();
+            assertSame(child, ly.findComponentAt(child.getX() + 1, child.getY() + 1)); // Invisible nodes are skipped
+        });
+    }
+
+    @Test
+    void invalidLayoutFallsBackToLinearScan() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            BLayout ly = newLayout(false, new Random(2));
+            ly.addNotify();
+            ly.validate();
+            JLabel added = new JLabel("Added"); // Not laid out yet
+            ly.addH(added);
+            added.setBounds(ly.getWidth() - 20, ly.getHeight() - 20, 10, 10);
+            assertFalse(ly.isValid());
+            assertSame(added, ly.getComponentAt(ly.getWidth() - 15, ly.getHeight() - 15));
+            assertSame(added, ly.findComponentAt(ly.getWidth() - 15, ly.getHeight() - 15));
+
+            Component moved = ly.getComponent(0); // Moved by somebody else after the pass
+            ly.validate();
+            moved.setLocation(ly.getWidth() - 40, ly.getHeight() - 40);
+            assertSame(linearComponentAt(ly, ly.getWidth() - 39, ly.getHeight() - 39),
+                    ly.getComponentAt(ly.getWidth() - 39, ly.getHeight() - 39));
+        });
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+import com.osiris.betterlayout.BLayout;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Makes sure a layout pass where nothing changed allocates (almost) nothing.
+ */
+class LayoutAllocationTest {
+    private static final int PASSES = 10_000;
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    @Test
+    void steadyStatePassAllocatesNothing() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            JPanel parent = new JPanel(); // Parent needed, otherwise the screen size is used, which fails when headless
+            parent.setSize(800, 600);
+            BLayout ly = new BLayout(parent, 100, 100);
+            for (int i = 0; i < 1000; i++) {
+                if (i % 4 == 0) ly.addV(new JLabel("Label " + i)).padding(i % 16);
+                else ly.addH(new JLabel("Label " + i));
+            }
+            ly.addNotify(); // Make displayable, otherwise AWT considers all components invalid
+            ly.validate();
+
+            for (int i = 0; i < PASSES; i++) { // Warmup
+                ly.doLayout();
+            }
+            long passesBefore = ly.stats.layoutPasses, hitsBefore = ly.stats.cacheHits;
+            long before = allocatedBytes();
+            for (int i = 0; i < PASSES; i++) {
+                ly.doLayout();
+            }
+            long bytesPerPass = (allocatedBytes() - before) / PASSES;
+            assertEquals(PASSES, ly.stats.layoutPasses - passesBefore);
+            assertEquals(PASSES, ly.stats.cacheHits - hitsBefore);
+            assertTrue(bytesPerPass < 8, "Expected no allocations, but got " + bytesPerPass + " bytes per pass.");
+        });
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+import com.osiris.betterlayout.LayoutCore;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Makes sure incremental passes of {@link LayoutCore} compute the same bounds as a full pass.
+ */
+class LayoutCoreTest {
+
+    @Test
+    void dirtyRowAboveStructuralChangeGetsLaidOut() {
+        Model model = new Model(40);
+        for (int i = 0; i < 40; i += 5) model.vertical[i] = true;
+        LayoutCore core = model.toCore();
+        core.layout();
+
+        model.setSize(core, 14, 300, 40);
+        model.setVisible(core, 21, false);
+        core.layout();
+        assertSameBounds(model.toCore(), core);
+    }
+
+    @Test
+    void incrementalPassesMatchFullPass() {
+        randomPasses(new Random(42), false);
+    }
+
+    @Test
+    void incrementalWrapPassesMatchFullPass() {
+        randomPasses(new Random(43), true);
+    }
+
+    @Test
+    void nodeWiderThanWrapWidthGetsOwnLine() {
+        Model model = new Model(3);
+        model.widths[1] = 150;
+        model.wrapWidth = 100;
+        LayoutCore core = model.toCore();
+        core.layout();
+        assertEquals(3, core.getLineCount(0));
+        assertBounds(core, 0, 0, 0, 20, 10);
+        assertBounds(core, 1, 0, 10, 150, 10);
+        assertBounds(core, 2, 0, 20, 20, 10);
+        assertEquals(150, core.getContentWidth());
+        assertEquals(30, core.getContentHeight());
+    }
+
+    @Test
+    void leadingInvisibleNodesDoNotBreakLines() {
+        Model model = new Model(7);
+        model.visible[0] = false;
+        model.visible[1] = false;
+        model.visible[4] = false; // Fits into the first line, since it has no width
+        model.wrapWidth = 40;
+        LayoutCore core = model.toCore();
+        core.layout();
+        assertEquals(2, core.getLineCount(0));
+        assertBounds(core, 2, 0, 0, 20, 10);
+        assertBounds(core, 3, 20, 0, 20, 10);
+        assertBounds(core, 4, 40, 0, 0, 0);
+        assertBounds(core, 5, 0, 10, 20, 10);
+        assertBounds(core, 6, 20, 10, 20, 10);
+        assertSameBounds(model.toCore(), core);
+    }
+
+    @Test
+    void wrappedRowFitsAgainAfterWidening() {
+        Model model = new Model(6);
+        model.vertical[5] = true; // Second row, that must move up
+        model.wrapWidth = 50;
+        LayoutCore core = model.toCore();
+        core.layout();
+        assertEquals(3, core.getLineCount(0));
+        assertBounds(core, 4, 0, 20, 20, 10);
+        assertBounds(core, 5, 0, 30, 20, 10);
+
+        model.setWrapWidth(core, 100);
+        core.layout();
+        assertEquals(1, core.getLineCount(0));
+        for (int i = 0; i < 5; i++) assertBounds(core, i, i * 20, 0, 20, 10);
+        assertBounds(core, 5, 0, 10, 20, 10);
+        assertSameBounds(model.toCore(), core);
+
+        model.setWrapWidth(core, 0);
+        core.layout();
+        assertSameBounds(model.toCore(), core);
+        model.setWrapWidth(core, 50);
+        core.layout();
+        assertEquals(3, core.getLineCount(0));
+        assertSameBounds(model.toCore(), core);
+    }
+
+    @Test
+    void wrapWidthFollowedByStructuralChange() {
+        Model model = new Model(30);
+        for (int i = 0; i < 30; i += 10) model.vertical[i] = true;
+        LayoutCore core = model.toCore();
+        core.layout();
+
+        model.setWrapWidth(core, 60);
+        model.setVisible(core, 25, false);
+        core.layout();
+        assertSameBounds(model.toCore(), core);
+
+        model.setWrapWidth(core, 90);
+        model.setVertical(core, 15, true);
+        model.setSize(core, 3, 70, 10);
+        core.layout();
+        assertSameBounds(model.toCore(), core);
+
+        model.setWrapWidth(core, 45);
+        model.setNodeCount(core, 50, new Random(1));
+        core.layout();
+        assertSameBounds(model.toCore(), core);
+    }
+
+    @Test
+    void nodeAtMatchesLinearScan() {
+        Random random = new Random(44);
+        for (int wrapWidth : new int[]{0, 150}) {
+            Model model = new Model(500);
+            for (int i = 0; i < model.count; i++) model.randomize(random, i);
+            model.wrapWidth = wrapWidth;
+            LayoutCore core = model.toCore();
+            core.layout();
+            int width = core.getContentWidth() + 20, height = core.getContentHeight() + 20;
+            for (int k = 0; k < 100_000; k++) {
+                int x = random.nextInt(width) - 10, y = random.nextInt(height) - 10;
+                assertEquals(linearNodeAt(core, x, y), core.nodeAt(x, y), "Wrong node at " + x + " " + y);
+            }
+        }
+    }
+
+    @Test
+    void nodeAtMissesPaddingInvisibleNodesAndSpaceBelow() {
+        Model model = new Model(4);
+        model.paddings[0] = 5;
+        model.visible[2] = false;
+        model.vertical[3] = true;
+        model.heights[3] = 4;
+        LayoutCore core = model.toCore();
+        core.layout();
+        assertEquals(-1, core.nodeAt(2, 2)); // Padding of node 0
+        assertEquals(0, core.nodeAt(5, 5));
+        assertEquals(-1, core.nodeAt(25, 10)); // Padding of node 0, below node 1
+        assertEquals(1, core.nodeAt(30, 0));
+        assertEquals(-1, core.nodeAt(60, 0)); // After node 1, invisible node 2 has no width
+        assertEquals(3, core.nodeAt(0, 20));
+        assertEquals(-1, core.nodeAt(0, 24)); // Below the last row
+        assertEquals(-1, core.nodeAt(-1, 5));
+        assertEquals(-1, core.nodeAt(5, -1));
+    }
+
+    /**
+     * Returns the first visible node containing the provided position, or -1.
+     */
+    static int linearNodeAt(LayoutCore core, int x, int y) {
+        for (int i = 0; i < core.getNodeCount(); i++) {
+            if (x >= core.getX(i) && x < core.getX(i) + core.getWidth(i)
+                    && y >= core.getY(i) && y < core.getY(i) + core.getHeight(i)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Runs random changes and compares each incremental pass to a full pass.
+     */
+    static void randomPasses(Random random, boolean isWrap) {
+        Model model = new Model(200);
+        for (int i = 0; i < model.count; i++) model.randomize(random, i);
+        if (isWrap) model.wrapWidth = 200;
+        LayoutCore core = model.toCore();
+        core.layout();
+
+        for (int pass = 0; pass < 2000; pass++) {
+            int changes = 1 + random.nextInt(4);
+            for (int c = 0; c < changes; c++) {
+                int node = random.nextInt(model.count);
+                switch (random.nextInt(isWrap ? 6 : 5)) {
+                    case 0:
+                        model.setSize(core, node, random.nextInt(100), random.nextInt(50));
+                        break;
+                    case 1:
+                        model.setVisible(core, node, !model.visible[node]);
+                        break;
+                    case 2:
+                        model.setVertical(core, node, !model.vertical[node]);
+                        break;
+                    case 3:
+                        model.setPadding(core, node, random.nextInt(16));
+                        break;
+                    case 4:
+                        model.setNodeCount(core, 1 + random.nextInt(300), random);
+                        break;
+                    default:
+                        model.setWrapWidth(core, random.nextInt(8) == 0 ? 0 : 20 + random.nextInt(400));
+                }
+            }
+            core.layout();
+            assertSameBounds(model.toCore(), core);
+        }
+    }
+
+    static void assertBounds(LayoutCore core, int node, int x, int y, int width, int height) {
+        assertEquals(Arrays.toString(new int[]{x, y, width, height}),
+                Arrays.toString(new int[]{core.getX(node), core.getY(node), core.getWidth(node), core.getHeight(node)}),
+                "Wrong bounds of node " + node);
+    }
+
+    static void assertSameBounds(LayoutCore expected, LayoutCore actual) {
+        expected.layout();
+        assertEquals(expected.getNodeCount(), actual.getNodeCount());
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        for (int i = 0; i < expected.getNodeCount(); i++) {
+            int[] e = {expected.getX(i), expected.getY(i), expected.getWidth(i), expected.getHeight(i)};
+            int[] a = {actual.getX(i), actual.getY(i), actual.getWidth(i), actual.getHeight(i)};
+            assertEquals(Arrays.toString(e), Arrays.toString(a), "Wrong bounds of node " + i);
+        }
+        assertEquals(expected.getContentWidth(), actual.getContentWidth());
+        assertEquals(expected.getContentHeight(), actual.getContentHeight());
+    }
+
+    /**
+     * The expected state of a {@link LayoutCore}, to build a fresh one for a full pass.
+     */
+    static class Model {
+        int count;
+        int[] widths = new int[0], heights = new int[0], paddings = new int[0];
+        boolean[] visible = new boolean[0], vertical = new boolean[0];
+        int wrapWidth;
+
+        Model(int count) {
+            resize(count);
+            for (int i = 0; i < count; i++) {
+                widths[i] = 20;
+                heights[i] = 10;
+                visible[i] = true;
+            }
+        }
+
+        private void resize(int count) {
+            widths = Arrays.copyOf(widths, count);
+            heights = Arrays.copyOf(heights, count);
+            paddings = Arrays.copyOf(paddings, count);
+            visible = Arrays.copyOf(visible, count);
+            vertical = Arrays.copyOf(vertical, count);
+            this.count = count;
+        }
+
+        void randomize(Random random, int node) {
+            widths[node] = random.nextInt(100);
+            heights[node] = random.nextInt(50);
+            paddings[node] = random.nextInt(16);
+            visible[node] = random.nextInt(10) != 0;
+            vertical[node] = random.nextInt(4) == 0;
+        }
+
+        void setSize(LayoutCore core, int node, int width, int height) {
+            widths[node] = width;
+            heights[node] = height;
+            core.setSize(node, width, height);
+        }
+
+        void setVisible(LayoutCore core, int node, boolean isVisible) {
+            visible[node] = isVisible;
+            core.setVisible(node, isVisible);
+        }
+
+        void setVertical(LayoutCore core, int node, boolean isVertical) {
+            vertical[node] = isVertical;
+            core.setVertical(node, isVertical);
+        }
+
+        void setPadding(LayoutCore core, int node, int padding) {
+            paddings[node] = padding;
+            core.setPadding(node, padding, padding, padding, padding);
+        }
+
+        void setWrapWidth(LayoutCore core, int width) {
+            wrapWidth = width;
+            core.setWrapWidth(width);
+        }
+
+        /**
+         * Changes the amount of nodes, new nodes get random values.
+         */
+        void setNodeCount(LayoutCore core, int count, Random random) {
+            int oldCount = this.count;
+            resize(count);
+            core.setNodeCount(count);
+            for (int i = oldCount; i < count; i++) {
+                randomize(random, i);
+                core.setSize(i, widths[i], heights[i]);
+                core.setPadding(i, paddings[i], paddings[i], paddings[i], paddings[i]);
+                core.setVisible(i, visible[i]);
+                core.setVertical(i, vertical[i]);
+            }
+        }
+
+        LayoutCore toCore() {
+            LayoutCore core = new LayoutCore();
+            core.setNodeCount(count);
+            for (int i = 0; i < count; i++) {
+                core.setSize(i, widths[i], heights[i]);
+                core.setPadding(i, paddings[i], paddings[i], paddings[i], paddings[i]);
+                core.setVisible(i, visible[i]);
+                core.setVertical(i, vertical[i]);
+            }
+            core.setWrapWidth(wrapWidth);
+            return core;
+        }
+    }
+}
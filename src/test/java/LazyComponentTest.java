@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+import com.osiris.betterlayout.BLayout;
+import com.osiris.betterlayout.LazyComponent;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import java.awt.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Makes sure placeholders inside a scrollable layout get built once scrolled into view, not when the layout shows.
+ */
+class LazyComponentTest {
+
+    private static void flushEvents() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            SwingUtilities.invokeAndWait(() -> {
+            });
+        }
+    }
+
+    @Test
+    void builtWhenScrolledIntoView() throws Exception {
+        int[] built = new int[2];
+        JPanel[] root = new JPanel[1];
+        JScrollPane[] scrollPane = new JScrollPane[1];
+        BLayout[] layout = new BLayout[1];
+        SwingUtilities.invokeAndWait(() -> {
+            // A displayable root without parent counts as showing, thus no window is needed when headless
+            root[0] = new JPanel(new BorderLayout());
+            root[0].setSize(300, 300);
+            BLayout ly = new BLayout(root[0], true);
+            ly.addLazyV(() -> {
+                built[0]++;
+                return new JLabel("Top");
+            });
+            for (int i = 0; i < 200; i++) {
+                ly.addV(new JLabel("Label " + i));
+            }
+            ly.addLazyV(() -> {
+                built[1]++;
+                return new JLabel("Bottom");
+            });
+            layout[0] = ly;
+            scrollPane[0] = new JScrollPane(ly);
+            root[0].add(scrollPane[0]);
+            root[0].addNotify();
+            root[0].validate();
+        });
+        flushEvents();
+        assertTrue(layout[0].isShowing());
+        assertEquals(1, built[0]);
+        assertEquals(0, built[1]);
+
+        SwingUtilities.invokeAndWait(() -> {
+            JScrollBar bar = scrollPane[0].getVerticalScrollBar();
+            bar.setValue(bar.getMaximum());
+        });
+        flushEvents();
+        assertEquals(1, built[0]);
+        assertEquals(1, built[1]);
+        SwingUtilities.invokeAndWait(() -> {
+            Component last = layout[0].getComponent(layout[0].getComponentCount() - 1);
+            assertTrue(last instanceof JLabel && !(last instanceof LazyComponent));
+        });
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+import com.osiris.betterlayout.MeasureCache;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Makes sure shrinking the {@link MeasureCache} only evicts the least recently used sizes.
+ */
+class MeasureCacheTest {
+
+    @Test
+    void shrinkingEvictsLeastRecentlyUsed() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            MeasureCache cache = new MeasureCache(10);
+            cache.getPreferredSize(new JLabel("First"));
+            cache.getPreferredSize(new JLabel("Second"));
+            cache.getPreferredSize(new JLabel("Third"));
+            cache.getPreferredSize(new JLabel("First")); // Now the most recently used
+            assertEquals(3, cache.size());
+
+            cache.setCapacity(2);
+            assertEquals(2, cache.size());
+            long misses = cache.getMisses();
+            cache.getPreferredSize(new JLabel("First"));
+            cache.getPreferredSize(new JLabel("Third"));
+            assertEquals(misses, cache.getMisses());
+            cache.getPreferredSize(new JLabel("Second")); // Evicted
+            assertEquals(misses + 1, cache.getMisses());
+
+            cache.setCapacity(0);
+            assertEquals(0, cache.size());
+        });
+    }
+}
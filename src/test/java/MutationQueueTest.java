@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+import com.osiris.betterlayout.BLayout;
+import com.osiris.betterlayout.MutationQueue;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Makes sure {@link MutationQueue} runs all changes of a batch, validates each affected root once
+ * and keeps its counters.
+ */
+class MutationQueueTest {
+
+    private static BLayout newLayout() {
+        JPanel parent = new JPanel(); // Parent needed, otherwise the screen size is used, which fails when headless
+        parent.setSize(800, 600);
+        return new BLayout(parent, 100, 100);
+    }
+
+    @Test
+    void siblingLayoutsShareOneRootValidation() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            BLayout ly = newLayout();
+            BLayout first = new BLayout(ly, true);
+            BLayout second = new BLayout(ly, true);
+            JLabel firstLabel = new JLabel("First");
+            JLabel secondLabel = new JLabel("Second");
+            first.addH(firstLabel);
+            second.addH(secondLabel);
+            ly.addV(first);
+            ly.addV(second);
+            ly.addNotify(); // Make displayable, otherwise AWT considers all components invalid
+            ly.validate();
+
+            MutationQueue queue = new MutationQueue();
+            for (int i = 1; i <= 3; i++) {
+                int padding = i;
+                String text = "A longer text, drain " + i; // Components only grow
+                queue.enqueue(first, () -> firstLabel.setText(text + " first"));
+                queue.enqueue(second, () -> secondLabel.setText(text + " second"));
+                queue.enqueue(second, () -> second.getChildStyles(secondLabel).paddingLeft(padding));
+                long passes = ly.stats.layoutPasses, firstPasses = first.stats.layoutPasses,
+                        secondPasses = second.stats.layoutPasses;
+                queue.drain();
+                assertEquals(passes + 1, ly.stats.layoutPasses, "Root validated more than once in drain " + i);
+                assertEquals(firstPasses + 1, first.stats.layoutPasses);
+                assertEquals(secondPasses + 1, second.stats.layoutPasses);
+                assertTrue(ly.isValid());
+                assertEquals(firstLabel.getPreferredSize().width, firstLabel.getWidth());
+                assertEquals(secondLabel.getPreferredSize().width, secondLabel.getWidth());
+                assertEquals(i, secondLabel.getX());
+                assertEquals(first.getPreferredSize().width, first.getWidth());
+                assertEquals(second.getPreferredSize().width, second.getWidth());
+            }
+        });
+    }
+
+    @Test
+    void failingChangesDoNotStopTheBatch() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            BLayout ly = newLayout();
+            JLabel label = new JLabel("Label");
+            ly.addH(label);
+            ly.addNotify();
+            ly.validate();
+
+            MutationQueue queue = new MutationQueue();
+            int[] ran = new int[1];
+            queue.enqueue(ly, () -> ran[0]++);
+            queue.enqueue(ly, () -> {
+                throw new AssertionError("First");
+            });
+            queue.enqueue(ly, () -> {
+                throw new IllegalStateException("Second");
+            });
+            queue.enqueue(ly, () -> {
+                ran[0]++;
+                label.setText("A much longer label");
+            });
+            AssertionError error = assertThrows(AssertionError.class, queue::drain);
+            assertEquals("First", error.getMessage());
+            assertEquals(1, error.getSuppressed().length);
+            assertTrue(error.getSuppressed()[0] instanceof IllegalStateException);
+            assertEquals(2, ran[0]);
+            assertEquals(label.getPreferredSize().width, label.getWidth()); // Still revalidated
+            assertEquals(0, queue.getDepth());
+            assertEquals(1, queue.getDrains());
+            assertEquals(4, queue.getDrained());
+
+            queue.enqueue(ly, () -> {
+                throw new IllegalArgumentException("Third");
+            });
+            assertThrows(IllegalArgumentException.class, queue::drain);
+            assertEquals(2, queue.getDrains());
+            assertEquals(5, queue.getDrained());
+        });
+    }
+
+    @Test
+    void countsDepthAndLatency() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            BLayout ly = newLayout();
+            ly.addNotify();
+            ly.validate();
+
+            MutationQueue queue = new MutationQueue();
+            queue.drain(); // Empty, thus not counted
+            assertEquals(0, queue.getDrains());
+
+            int[] ran = new int[1];
+            for (int i = 0; i < 3; i++) queue.enqueue(ly, () -> ran[0]++);
+            assertEquals(3, queue.getDepth());
+            assertEquals(3, queue.getMaxDepth());
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            queue.drain();
+            assertEquals(3, ran[0]);
+            assertEquals(0, queue.getDepth());
+            assertEquals(3, queue.getMaxDepth());
+            assertEquals(1, queue.getDrains());
+            assertEquals(3, queue.getDrained());
+            long latency = queue.getLastDrainLatencyNanos();
+            assertTrue(latency >= 5_000_000, "Latency of " + latency + "ns is lower than the time queued");
+            assertEquals(latency, queue.getMaxDrainLatencyNanos());
+
+            // Changes queued while draining go into the next batch
+            queue.enqueue(ly, () -> queue.enqueue(ly, () -> ran[0]++));
+            queue.drain();
+            assertEquals(3, ran[0]);
+            assertEquals(1, queue.getDepth());
+            assertTrue(queue.getLastDrainLatencyNanos() < latency);
+            assertEquals(latency, queue.getMaxDrainLatencyNanos());
+            queue.drain();
+            assertEquals(4, ran[0]);
+            assertEquals(0, queue.getDepth());
+            assertEquals(3, queue.getDrains());
+            assertEquals(5, queue.getDrained());
+
+            queue.resetStats();
+            assertEquals(0, queue.getMaxDepth());
+            assertEquals(0, queue.getDrains());
+            assertEquals(0, queue.getDrained());
+            assertEquals(0, queue.getLastDrainLatencyNanos());
+            assertEquals(0, queue.getMaxDrainLatencyNanos());
+        });
+    }
+}
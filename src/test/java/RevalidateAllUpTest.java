@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+import com.osiris.betterlayout.BLayout;
+import com.osiris.betterlayout.utils.UI;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Makes sure validating bottom-up still re-measures the changed child components of a {@link BLayout},
+ * although they are validated before it.
+ */
+class RevalidateAllUpTest {
+
+    @Test
+    void changedChildGetsMeasured() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            JPanel parent = new JPanel(); // Parent needed, otherwise the screen size is used, which fails when headless
+            parent.setSize(800, 600);
+            BLayout ly = new BLayout(parent, 100, 100);
+            BLayout child = new BLayout(ly, true);
+            JLabel label = new JLabel("Label");
+            JLabel nested = new JLabel("Nested");
+            ly.addH(label);
+            child.addH(nested);
+            ly.addV(child);
+            ly.addNotify(); // Make displayable, otherwise AWT considers all components invalid
+            ly.validate();
+
+            label.setText("A much longer label");
+            UI.revalidateAllUp(ly);
+            assertEquals(label.getPreferredSize().width, label.getWidth());
+
+            nested.setText("A much longer nested label");
+            UI.revalidateAllUp(child, true);
+            assertEquals(nested.getPreferredSize().width, nested.getWidth());
+            assertEquals(child.getPreferredSize().width, child.getWidth());
+
+            label.setText("An even much longer label, that grows again"); // Components only grow
+            UI.validateAllUp(ly, false);
+            assertEquals(label.getPreferredSize().width, label.getWidth());
+        });
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2022 Osiris-Team.
+ * All rights reserved.
+ *
+ * This software is copyrighted work, licensed under the terms
+ * of the MIT-License. Consult the "LICENSE" file for details.
+ */
+
+import com.osiris.betterlayout.CompWrapper;
+import com.osiris.betterlayout.Style;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Makes sure {@link CompWrapper#map} reads and writes the packed styles of its wrapper.
+ */
+class StyleMapTest {
+
+    @Test
+    void putGetRemoveMatchPackedStyles() {
+        CompWrapper wrapper = new CompWrapper();
+        Map<String, String> map = wrapper.map;
+
+        assertNull(map.put(Style.padding_left.key, "12"));
+        assertEquals(12, wrapper.getPaddingLeft());
+        assertEquals("12", map.get(Style.padding_left.key));
+        wrapper.paddingTop(3);
+        assertEquals("3", map.get(Style.padding_top.key));
+
+        map.put(Style.vertical.key, Style.horizontal.value);
+        assertTrue(wrapper.isHorizontal());
+        wrapper.vertical();
+        assertEquals(Style.vertical.value, map.get(Style.vertical.key));
+
+        map.put(Style.left.key, Style.center.value);
+        assertEquals(Style.center.value, map.get(Style.left.key));
+        map.put("width", "50%");
+        assertEquals(50, wrapper.getWidthPercent());
+        assertEquals("50", map.get("width"));
+        map.put("height", "20");
+        assertEquals(20, wrapper.getHeightPercent());
+        assertEquals("20", map.get("height"));
+
+        assertEquals("12", map.remove(Style.padding_left.key));
+        assertNull(map.get(Style.padding_left.key));
+        assertFalse(map.containsKey(Style.padding_left.key));
+        assertEquals("50", map.remove("width"));
+        assertEquals(-1, wrapper.getWidthPercent());
+    }
+
+    @Test
+    void entrySetMatchesPackedStyles() {
+        CompWrapper wrapper = new CompWrapper();
+        wrapper.paddingRight(4).horizontal().right();
+        wrapper.map.put("width", "30");
+        wrapper.map.put("color", "red");
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put(Style.padding_right.key, "4");
+        expected.put(Style.vertical.key, Style.horizontal.value);
+        expected.put(Style.left.key, Style.right.value);
+        expected.put("width", "30");
+        expected.put("color", "red");
+        assertEquals(expected, new HashMap<>(wrapper.map));
+        assertEquals(expected.size(), wrapper.map.size());
+
+        // Round-trip into another wrapper
+        CompWrapper copy = new CompWrapper(null, wrapper.map);
+        assertEquals(expected, new HashMap<>(copy.map));
+        assertEquals(4, copy.getPaddingRight());
+        assertTrue(copy.isHorizontal());
+        assertEquals(30, copy.getWidthPercent());
+
+        wrapper.map.entrySet().removeIf(e -> e.getKey().equals(Style.padding_right.key));
+        assertEquals(0, wrapper.getPaddingRight());
+        assertNull(wrapper.map.get(Style.padding_right.key));
+        wrapper.map.clear();
+        assertTrue(wrapper.map.isEmpty());
+        assertEquals(-1, wrapper.getWidthPercent());
+    }
+
+    @Test
+    void unknownKeysAreKeptAside() {
+        CompWrapper wrapper = new CompWrapper();
+        Map<String, String> styles = new HashMap<>(wrapper.map);
+        assertNull(wrapper.map.put("font", "bold"));
+        assertEquals(0, wrapper.getPaddingLeft());
+        assertEquals(-1, wrapper.getWidthPercent());
+        assertEquals("bold", wrapper.map.get("font"));
+        assertTrue(wrapper.map.containsKey("font"));
+        assertEquals("bold", wrapper.map.put("font", "italic"));
+        assertEquals("italic", wrapper.map.remove("font"));
+        assertNull(wrapper.map.get("font"));
+        assertEquals(styles, new HashMap<>(wrapper.map));
+    }
+
+    @Test
+    void invalidKnownValuesThrow() {
+        CompWrapper wrapper = new CompWrapper();
+        Map<String, String> styles = new HashMap<>(wrapper.map);
+        assertThrows(IllegalArgumentException.class, () -> wrapper.map.put(Style.vertical.key, "diagonal"));
+        assertThrows(IllegalArgumentException.class, () -> wrapper.map.put(Style.left.key, "middle"));
+        assertThrows(IllegalArgumentException.class, () -> wrapper.map.put("width", "300"));
+        assertThrows(IllegalArgumentException.class, () -> wrapper.map.put("height", "-1%"));
+        assertThrows(IllegalArgumentException.class, () -> wrapper.map.put(Style.padding_bottom.key, "abc"));
+        assertEquals(styles, new HashMap<>(wrapper.map));
+    }
+}
@@ -8,6 +8,7 @@
 
 import com.formdev.flatlaf.FlatLightLaf;
 import com.osiris.betterlayout.BLayout;
+import com.osiris.betterlayout.LazyComponent;
 import com.osiris.betterlayout.utils.UIDebugWindow;
 
 import javax.swing.*;
@@ -96,6 +97,7 @@ public class TestWindow extends JFrame {
                     .makeScrollable(); // This adds the scroll layout to the rootLayout
             JTabbedPane tabbedPane = new JTabbedPane();
             tabbedPane.addTab("hello!", new BLayout(tabbedPane, 100, 10));
+            tabbedPane.addTab("lazy!", new LazyComponent(() -> new BLayout(tabbedPane, 100, 10))); // Built once selected
             rootLayout.addV(tabbedPane);
         });
     }